@@ -0,0 +1,76 @@
+package com.hotwirestudios.sqlite.driver.benchmark;
+
+import com.hotwirestudios.sqlite.driver.NativeSQLiteConnection;
+import com.hotwirestudios.sqlite.driver.SQLCipherKey;
+import com.hotwirestudios.sqlite.driver.SQLCipherSettings;
+import com.hotwirestudios.sqlite.driver.SQLiteException;
+import com.hotwirestudios.sqlite.driver.SQLiteNative;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Creates the databases of the benchmarks. All data is generated from fixed seeds, so every run measures the same content.
+ */
+final class BenchmarkDatabase {
+    static final long SEED = 42;
+
+    /**
+     * No encryption
+     */
+    static final String CIPHER_NONE = "none";
+    /**
+     * Passphrase key with the SQLCipher defaults, i.e. PBKDF2 on every open
+     */
+    static final String CIPHER_PASSPHRASE = "passphrase";
+    /**
+     * Raw key with the SQLCipher defaults
+     */
+    static final String CIPHER_RAW = "raw";
+    /**
+     * Raw key, 4096 byte pages and no memory security
+     */
+    static final String CIPHER_RAW_TUNED = "raw-tuned";
+
+    private BenchmarkDatabase() {
+    }
+
+    static File createFile() throws IOException {
+        File file = File.createTempFile("benchmark", ".db");
+        delete(file);
+        return file;
+    }
+
+    static void delete(File file) {
+        for (String suffix : new String[]{"", "-journal", "-wal", "-shm"}) {
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+
+    static NativeSQLiteConnection open(File file, String cipher) throws SQLiteException {
+        NativeSQLiteConnection connection = new NativeSQLiteConnection(file.getPath(), getKey(cipher), getCipherSettings(cipher), SQLiteNative.SQLITE_OPEN_CREATE_IF_NECESSARY | SQLiteNative.SQLITE_OPEN_READWRITE);
+        connection.open();
+        return connection;
+    }
+
+    static SQLCipherKey getKey(String cipher) {
+        switch (cipher) {
+            case CIPHER_NONE:
+                return null;
+            case CIPHER_PASSPHRASE:
+                return SQLCipherKey.fromPassphrase("benchmark");
+            case CIPHER_RAW:
+            case CIPHER_RAW_TUNED:
+                byte[] key = new byte[SQLCipherKey.RAW_KEY_LENGTH];
+                Arrays.fill(key, (byte) 0x2a);
+                return SQLCipherKey.fromRawKey(key);
+            default:
+                throw new IllegalArgumentException("Unknown cipher " + cipher);
+        }
+    }
+
+    static SQLCipherSettings getCipherSettings(String cipher) {
+        return CIPHER_RAW_TUNED.equals(cipher) ? new SQLCipherSettings(null, 4096, false) : SQLCipherSettings.DEFAULT;
+    }
+}
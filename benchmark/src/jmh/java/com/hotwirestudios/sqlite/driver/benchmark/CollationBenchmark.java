@@ -0,0 +1,87 @@
+package com.hotwirestudios.sqlite.driver.benchmark;
+
+import com.hotwirestudios.sqlite.driver.NativeSQLiteConnection;
+import com.hotwirestudios.sqlite.driver.SQLiteException;
+import com.hotwirestudios.sqlite.driver.SQLiteRow;
+import com.hotwirestudios.sqlite.driver.SQLiteStatement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sorting text with the built-in collations and the native DIACRITIC collation, which is registered on demand.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CollationBenchmark {
+    private static final int ROWS = 10000;
+    private static final String LETTERS = "aA\u00e4\u00c4bc\u00e7de\u00e9\u00e8\u00eafghi\u00efjklmno\u00f6pqrs\u00dftu\u00fcvwxyz ";
+
+    @Param({"BINARY", "NOCASE", "DIACRITIC"})
+    public String collation;
+
+    private File file;
+    private NativeSQLiteConnection connection;
+    private SQLiteStatement statement;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = BenchmarkDatabase.createFile();
+        connection = BenchmarkDatabase.open(file, BenchmarkDatabase.CIPHER_NONE);
+        connection.executeStatement("CREATE TABLE word (id INTEGER NOT NULL PRIMARY KEY, text TEXT NOT NULL)");
+
+        Random random = new Random(BenchmarkDatabase.SEED);
+        connection.beginTransaction();
+        SQLiteStatement insert = connection.createStatement("INSERT INTO word (id, text) VALUES (:id, :text)");
+        try {
+            for (int id = 1; id <= ROWS; id++) {
+                StringBuilder text = new StringBuilder();
+                int length = 4 + random.nextInt(12);
+                for (int i = 0; i < length; i++) {
+                    text.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+                }
+                insert.bindValue(id).to(":id");
+                insert.bindValue(text.toString()).to(":text");
+                insert.step();
+                insert.resetAndClearBindings();
+            }
+        } finally {
+            insert.finish();
+        }
+        connection.commitTransaction();
+
+        statement = connection.createStatement("SELECT text FROM word ORDER BY text COLLATE " + collation);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        statement.finish();
+        connection.close();
+        BenchmarkDatabase.delete(file);
+    }
+
+    @Benchmark
+    public void orderBy(final Blackhole blackhole) throws SQLiteException {
+        statement.load(new SQLiteStatement.RowCallback() {
+            @Override
+            public void readRow(SQLiteRow row) throws SQLiteException {
+                blackhole.consume(row.getText("text"));
+            }
+        });
+        statement.resetAndClearBindings();
+    }
+}
@@ -0,0 +1,185 @@
+package com.hotwirestudios.sqlite.driver.benchmark;
+
+import com.hotwirestudios.sqlite.driver.JsonImportOptions;
+import com.hotwirestudios.sqlite.driver.NativeSQLiteConnection;
+import com.hotwirestudios.sqlite.driver.SQLiteException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the rows per second imported by {@link NativeSQLiteConnection#importJson(String, JsonImportOptions)} for different payload shapes and merge strategies,
+ * either into empty tables (inserts only) or into tables already containing the payload (updates only).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ImportBenchmark {
+    private static final int ROWS = 10000;
+
+    /**
+     * 2 columns
+     */
+    private static final String SHAPE_NARROW = "narrow";
+    /**
+     * 20 integer, real and text columns
+     */
+    private static final String SHAPE_WIDE = "wide";
+    /**
+     * Long texts with escaped characters
+     */
+    private static final String SHAPE_TEXT = "text";
+    /**
+     * 20 tables with 4 columns each
+     */
+    private static final String SHAPE_TABLES = "tables";
+
+    @Param({SHAPE_NARROW, SHAPE_WIDE, SHAPE_TEXT, SHAPE_TABLES})
+    public String shape;
+
+    @Param({"update_insert", "upsert", "automatic"})
+    public String mergeStrategy;
+
+    @Param({"empty", "populated"})
+    public String target;
+
+    private File file;
+    private NativeSQLiteConnection connection;
+    private String json;
+    private String[] tables;
+    private JsonImportOptions options;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = BenchmarkDatabase.createFile();
+        connection = BenchmarkDatabase.open(file, BenchmarkDatabase.CIPHER_NONE);
+
+        int tableCount = SHAPE_TABLES.equals(shape) ? 20 : 1;
+        int columnCount = SHAPE_WIDE.equals(shape) ? 20 : SHAPE_TABLES.equals(shape) ? 4 : SHAPE_TEXT.equals(shape) ? 3 : 2;
+        tables = new String[tableCount];
+        Random random = new Random(BenchmarkDatabase.SEED);
+        StringBuilder builder = new StringBuilder("{\"current\": [");
+        for (int t = 0; t < tableCount; t++) {
+            tables[t] = "item_" + t;
+            StringBuilder definition = new StringBuilder("id INTEGER NOT NULL PRIMARY KEY");
+            StringBuilder columns = new StringBuilder("\"id\"");
+            for (int c = 1; c < columnCount; c++) {
+                definition.append(", c").append(c).append(' ').append(getColumnType(c));
+                columns.append(", \"c").append(c).append('"');
+            }
+            connection.executeStatement("CREATE TABLE " + tables[t] + " (" + definition + ")");
+
+            int rows = ROWS / tableCount;
+            builder.append(t > 0 ? ", " : "").append("{\"table\": \"").append(tables[t]).append("\", \"columns\": [").append(columns).append("], \"count\": ").append(rows).append(", \"values\": [");
+            for (int r = 1; r <= rows; r++) {
+                builder.append(r > 1 ? ", " : "").append('[').append(r);
+                for (int c = 1; c < columnCount; c++) {
+                    builder.append(", ");
+                    appendValue(builder, c, random);
+                }
+                builder.append(']');
+            }
+            builder.append("]}");
+        }
+        json = builder.append("]}").toString();
+
+        options = new JsonImportOptions();
+        options.setMergeStrategy(getMergeStrategy());
+        connection.importJson(json, options);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareTarget() throws SQLiteException {
+        if (!"empty".equals(target)) {
+            return;
+        }
+        connection.beginTransaction();
+        for (String table : tables) {
+            connection.executeStatement("DELETE FROM " + table);
+        }
+        connection.commitTransaction();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        connection.close();
+        BenchmarkDatabase.delete(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void importJson() throws SQLiteException {
+        connection.importJson(json, options);
+    }
+
+    private String getColumnType(int column) {
+        if (SHAPE_TEXT.equals(shape)) {
+            return "TEXT";
+        }
+        switch (column % 3) {
+            case 0:
+                return "INTEGER";
+            case 1:
+                return "TEXT";
+            default:
+                return "REAL";
+        }
+    }
+
+    private void appendValue(StringBuilder builder, int column, Random random) {
+        if (SHAPE_TEXT.equals(shape)) {
+            builder.append('"');
+            int length = 200 + random.nextInt(600);
+            for (int i = 0; i < length; i++) {
+                int next = random.nextInt(64);
+                if (next == 0) {
+                    builder.append("\\\"");
+                } else if (next == 1) {
+                    builder.append("\\n");
+                } else if (next == 2) {
+                    builder.append("\\u00e4");
+                } else {
+                    builder.append((char) ('a' + next % 26));
+                }
+            }
+            builder.append('"');
+            return;
+        }
+        switch (column % 3) {
+            case 0:
+                builder.append(random.nextInt());
+                break;
+            case 1:
+                builder.append("\"Value ").append(random.nextInt(100000)).append('"');
+                break;
+            default:
+                builder.append(random.nextInt(1000000) / 100.0);
+                break;
+        }
+    }
+
+    @JsonImportOptions.MergeStrategy
+    private int getMergeStrategy() {
+        switch (mergeStrategy) {
+            case "upsert":
+                return JsonImportOptions.MERGE_UPSERT;
+            case "automatic":
+                return JsonImportOptions.MERGE_AUTOMATIC;
+            default:
+                return JsonImportOptions.MERGE_UPDATE_THEN_INSERT;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.hotwirestudios.sqlite.driver.benchmark;
+
+import com.hotwirestudios.sqlite.driver.NativeSQLiteConnection;
+import com.hotwirestudios.sqlite.driver.SQLiteException;
+import com.hotwirestudios.sqlite.driver.SQLiteRow;
+import com.hotwirestudios.sqlite.driver.SQLiteStatement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures opening a database and reading its schema with the different cipher configurations, which includes the key derivation of passphrase keys.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OpenBenchmark {
+    @Param({BenchmarkDatabase.CIPHER_NONE, BenchmarkDatabase.CIPHER_PASSPHRASE, BenchmarkDatabase.CIPHER_RAW, BenchmarkDatabase.CIPHER_RAW_TUNED})
+    public String cipher;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = BenchmarkDatabase.createFile();
+        NativeSQLiteConnection connection = BenchmarkDatabase.open(file, cipher);
+        try {
+            connection.executeStatement("CREATE TABLE item (id INTEGER NOT NULL PRIMARY KEY, name TEXT NOT NULL)");
+        } finally {
+            connection.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkDatabase.delete(file);
+    }
+
+    @Benchmark
+    public Integer open() throws SQLiteException {
+        NativeSQLiteConnection connection = BenchmarkDatabase.open(file, cipher);
+        try {
+            // The key is only applied when the first page is read
+            SQLiteStatement statement = connection.createStatement("SELECT COUNT(*) AS count FROM sqlite_master");
+            try {
+                return statement.load(new SQLiteStatement.RowValueCallback<Integer>() {
+                    @Override
+                    public Integer readRow(SQLiteRow row) throws SQLiteException {
+                        return row.getInteger("count");
+                    }
+                });
+            } finally {
+                statement.finish();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+}
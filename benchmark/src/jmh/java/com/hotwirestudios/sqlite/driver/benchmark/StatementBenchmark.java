@@ -0,0 +1,158 @@
+package com.hotwirestudios.sqlite.driver.benchmark;
+
+import com.hotwirestudios.sqlite.driver.NativeSQLiteConnection;
+import com.hotwirestudios.sqlite.driver.SQLiteException;
+import com.hotwirestudios.sqlite.driver.SQLiteRow;
+import com.hotwirestudios.sqlite.driver.SQLiteStatement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures preparing statements, binding values and reading rows through {@link SQLiteRow}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StatementBenchmark {
+    private static final int ROWS = 10000;
+    private static final int PAGE_SIZE = 1000;
+
+    @Param({BenchmarkDatabase.CIPHER_NONE, BenchmarkDatabase.CIPHER_RAW, BenchmarkDatabase.CIPHER_RAW_TUNED})
+    public String cipher;
+
+    private File file;
+    private NativeSQLiteConnection connection;
+    private SQLiteStatement insertStatement;
+    private SQLiteStatement pageStatement;
+    private int nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = BenchmarkDatabase.createFile();
+        connection = BenchmarkDatabase.open(file, cipher);
+        connection.executeStatement("CREATE TABLE item (id INTEGER NOT NULL PRIMARY KEY, name TEXT NOT NULL, price INTEGER NOT NULL, created INTEGER NOT NULL, active INTEGER NOT NULL)");
+        connection.executeStatement("CREATE TABLE scratch (id INTEGER NOT NULL PRIMARY KEY, name TEXT, price INTEGER, created INTEGER, active INTEGER)");
+
+        Random random = new Random(BenchmarkDatabase.SEED);
+        connection.beginTransaction();
+        SQLiteStatement statement = connection.createStatement("INSERT INTO item (id, name, price, created, active) VALUES (:id, :name, :price, :created, :active)");
+        try {
+            for (int id = 1; id <= ROWS; id++) {
+                statement.bindValue(id).to(":id");
+                statement.bindValue("Item " + random.nextInt()).to(":name");
+                statement.bindValue(random.nextLong()).to(":price");
+                statement.bindValue(new Date(random.nextInt() & Integer.MAX_VALUE)).to(":created");
+                statement.bindValue(random.nextBoolean()).to(":active");
+                statement.step();
+                statement.resetAndClearBindings();
+            }
+        } finally {
+            statement.finish();
+        }
+        connection.commitTransaction();
+
+        insertStatement = connection.createStatement("INSERT OR REPLACE INTO scratch (id, name, price, created, active) VALUES (:id, :name, :price, :created, :active)");
+        pageStatement = connection.createStatement("SELECT id, name, price, created, active FROM item WHERE id > :offset ORDER BY id LIMIT " + PAGE_SIZE);
+    }
+
+    @Setup(Level.Iteration)
+    public void beginTransaction() throws SQLiteException {
+        // Otherwise every insert would measure a commit
+        connection.beginTransaction();
+    }
+
+    @TearDown(Level.Iteration)
+    public void rollbackTransaction() throws SQLiteException {
+        connection.rollbackTransaction();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        insertStatement.finish();
+        pageStatement.finish();
+        connection.close();
+        BenchmarkDatabase.delete(file);
+    }
+
+    @Benchmark
+    public void prepare() throws SQLiteException {
+        SQLiteStatement statement = connection.createStatement("SELECT id, name, price, created, active FROM item WHERE id = :id");
+        statement.finish();
+    }
+
+    @Benchmark
+    public void bindAndStep() throws SQLiteException {
+        int id = nextId++ % PAGE_SIZE;
+        insertStatement.bindValue(id).to(":id");
+        insertStatement.bindValue("Scratch").to(":name");
+        insertStatement.bindValue((long) id).to(":price");
+        insertStatement.bindValue(new Date(id)).to(":created");
+        insertStatement.bindValue(Boolean.TRUE).to(":active");
+        insertStatement.step();
+        insertStatement.resetAndClearBindings();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_SIZE)
+    public void stepRows(final Blackhole blackhole) throws SQLiteException {
+        pageStatement.bindValue(nextId++ % (ROWS - PAGE_SIZE)).to(":offset");
+        pageStatement.load(new SQLiteStatement.RowCallback() {
+            @Override
+            public void readRow(SQLiteRow row) throws SQLiteException {
+                blackhole.consume(row.getInteger("id"));
+                blackhole.consume(row.getText("name"));
+                blackhole.consume(row.getLong("price"));
+                blackhole.consume(row.getDate("created"));
+                blackhole.consume(row.getBoolean("active"));
+            }
+        });
+        pageStatement.resetAndClearBindings();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_SIZE)
+    public List<Item> readList() throws SQLiteException {
+        pageStatement.bindValue(nextId++ % (ROWS - PAGE_SIZE)).to(":offset");
+        List<Item> items = pageStatement.readList(new SQLiteStatement.RowValueCallback<Item>() {
+            @Override
+            public Item readRow(SQLiteRow row) throws SQLiteException {
+                return new Item(row.getInteger("id"), row.getText("name"), row.getLong("price"), row.getDate("created"), row.getBoolean("active"));
+            }
+        });
+        pageStatement.resetAndClearBindings();
+        return items;
+    }
+
+    public static class Item {
+        final int id;
+        final String name;
+        final long price;
+        final Date created;
+        final boolean active;
+
+        Item(int id, String name, long price, Date created, boolean active) {
+            this.id = id;
+            this.name = name;
+            this.price = price;
+            this.created = created;
+            this.active = active;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.hotwirestudios.sqlite.driver.benchmark;
+
+import android.support.annotation.NonNull;
+
+import com.hotwirestudios.sqlite.driver.DatabaseAccess;
+import com.hotwirestudios.sqlite.driver.SQLiteConnection;
+import com.hotwirestudios.sqlite.driver.SQLiteStatement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Task;
+
+/**
+ * Measures the overhead of {@link DatabaseAccess#performThreadsafe(DatabaseAccess.SQLiteConnectionContext, boolean)}, i.e. queueing a context on the executor, with and without a transaction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransactionBenchmark {
+    @Param({"1", "100"})
+    public int rowsPerTransaction;
+
+    private File file;
+    private DatabaseAccess databaseAccess;
+    private int nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = BenchmarkDatabase.createFile();
+        databaseAccess = new DatabaseAccess(file.getPath(), null);
+        await(databaseAccess.performThreadsafe(new DatabaseAccess.SQLiteConnectionContext<Void>() {
+            @Override
+            public Void run(@NonNull SQLiteConnection connection) throws Exception {
+                connection.executeStatement("CREATE TABLE item (id INTEGER NOT NULL PRIMARY KEY, name TEXT NOT NULL)");
+                return null;
+            }
+        }, false));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        await(databaseAccess.close());
+        BenchmarkDatabase.delete(file);
+    }
+
+    @Benchmark
+    public void readOnly() throws Exception {
+        await(databaseAccess.performThreadsafe(new DatabaseAccess.SQLiteConnectionContext<Void>() {
+            @Override
+            public Void run(@NonNull SQLiteConnection connection) throws Exception {
+                return null;
+            }
+        }, false));
+    }
+
+    @Benchmark
+    public void transaction() throws Exception {
+        final int firstId = nextId;
+        nextId += rowsPerTransaction;
+        await(databaseAccess.performThreadsafe(new DatabaseAccess.SQLiteConnectionContext<Void>() {
+            @Override
+            public Void run(@NonNull SQLiteConnection connection) throws Exception {
+                SQLiteStatement statement = connection.createStatement("INSERT OR REPLACE INTO item (id, name) VALUES (:id, :name)");
+                try {
+                    for (int i = 0; i < rowsPerTransaction; i++) {
+                        // Keeps the table small, so the size of the database does not change over the iterations
+                        statement.bindValue((firstId + i) % 1000).to(":id");
+                        statement.bindValue("Item").to(":name");
+                        statement.step();
+                        statement.resetAndClearBindings();
+                    }
+                } finally {
+                    statement.finish();
+                }
+                return null;
+            }
+        }, true));
+    }
+
+    private static <T> T await(Task<T> task) throws Exception {
+        task.waitForCompletion();
+        if (task.isFaulted()) {
+            throw task.getError();
+        }
+        return task.getResult();
+    }
+}
@@ -0,0 +1,28 @@
+package android.util;
+
+/**
+ * Host replacement of the Android logger, so the driver runs in the benchmarks. Only warnings and errors are printed, as they would distort measurements otherwise.
+ */
+public final class Log {
+    private Log() {
+    }
+
+    public static int d(String tag, String message) {
+        return 0;
+    }
+
+    public static int w(String tag, String message) {
+        System.err.println(tag + ": " + message);
+        return 0;
+    }
+
+    public static int w(String tag, String message, Throwable throwable) {
+        System.err.println(tag + ": " + message + ": " + throwable);
+        return 0;
+    }
+
+    public static int e(String tag, String message) {
+        System.err.println(tag + ": " + message);
+        return 0;
+    }
+}
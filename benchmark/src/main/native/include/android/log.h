@@ -0,0 +1,29 @@
+//
+// Host replacement of the NDK logging header, so the native driver builds for the benchmarks.
+//
+
+#ifndef SQLITE_NATIVE_DRIVER_BENCHMARK_ANDROID_LOG_H
+#define SQLITE_NATIVE_DRIVER_BENCHMARK_ANDROID_LOG_H
+
+#include <stdio.h>
+#include <stdarg.h>
+
+#define ANDROID_LOG_VERBOSE 2
+#define ANDROID_LOG_DEBUG 3
+#define ANDROID_LOG_INFO 4
+#define ANDROID_LOG_WARN 5
+#define ANDROID_LOG_ERROR 6
+
+static inline int __android_log_print(int prio, const char *tag, const char *format, ...) {
+    if (prio < ANDROID_LOG_WARN) {
+        return 0;
+    }
+    va_list args;
+    va_start(args, format);
+    fprintf(stderr, "%s: ", tag);
+    int result = vfprintf(stderr, format, args);
+    va_end(args);
+    return result;
+}
+
+#endif //SQLITE_NATIVE_DRIVER_BENCHMARK_ANDROID_LOG_H
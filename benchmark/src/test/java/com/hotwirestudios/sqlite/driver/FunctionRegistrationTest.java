@@ -0,0 +1,133 @@
+package com.hotwirestudios.sqlite.driver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Every function registered on a connection must receive its own calls, although all of them share one native callback per role.
+ */
+public class FunctionRegistrationTest {
+    private NativeSQLiteConnection connection;
+
+    @Before
+    public void setUp() throws SQLiteException {
+        connection = new NativeSQLiteConnection(":memory:", null, SQLiteNative.SQLITE_OPEN_READWRITE | SQLiteNative.SQLITE_OPEN_CREATE_IF_NECESSARY);
+        connection.open();
+        connection.executeStatement("CREATE TABLE number (x INTEGER)");
+        connection.executeStatement("INSERT INTO number (x) VALUES (1), (2), (3), (4)");
+
+        connection.registerScalarFunction("twice", 1, new SQLiteScalarFunction() {
+            @Override
+            public void call(SQLiteFunctionArguments arguments, SQLiteFunctionResult result) {
+                result.setLong(arguments.getLong(0) * 2);
+            }
+        });
+        connection.registerScalarFunction("negate", 1, new SQLiteScalarFunction() {
+            @Override
+            public void call(SQLiteFunctionArguments arguments, SQLiteFunctionResult result) {
+                result.setLong(-arguments.getLong(0));
+            }
+        });
+        connection.registerAggregateFunction("product", 1, new SQLiteAggregateFunction<long[]>() {
+            @Override
+            public long[] createState() {
+                return new long[]{1};
+            }
+
+            @Override
+            public void step(long[] state, SQLiteFunctionArguments arguments) {
+                state[0] *= arguments.getLong(0);
+            }
+
+            @Override
+            public void finish(long[] state, SQLiteFunctionResult result) {
+                result.setLong(state[0]);
+            }
+        });
+        connection.registerWindowFunction("window_sum", 1, new SQLiteWindowFunction<long[]>() {
+            @Override
+            public long[] createState() {
+                return new long[1];
+            }
+
+            @Override
+            public void step(long[] state, SQLiteFunctionArguments arguments) {
+                state[0] += arguments.getLong(0);
+            }
+
+            @Override
+            public void inverse(long[] state, SQLiteFunctionArguments arguments) {
+                state[0] -= arguments.getLong(0);
+            }
+
+            @Override
+            public void value(long[] state, SQLiteFunctionResult result) {
+                result.setLong(state[0]);
+            }
+
+            @Override
+            public void finish(long[] state, SQLiteFunctionResult result) {
+                // Distinguishable from value, so a swapped callback fails the test
+                result.setLong(-state[0]);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        connection.close();
+    }
+
+    @Test
+    public void scalarFunctionsReceiveTheirOwnCalls() throws SQLiteException {
+        assertEquals(Long.valueOf(42), loadLong("SELECT twice(21) AS result"));
+        assertEquals(Long.valueOf(-5), loadLong("SELECT negate(5) AS result"));
+        assertEquals(Long.valueOf(-14), loadLong("SELECT negate(twice(7)) AS result"));
+    }
+
+    @Test
+    public void aggregateFunctionReceivesItsCalls() throws SQLiteException {
+        assertEquals(Long.valueOf(24), loadLong("SELECT product(x) AS result FROM number"));
+    }
+
+    @Test
+    public void windowFunctionAsAggregateCallsFinal() throws SQLiteException {
+        assertEquals(Long.valueOf(-10), loadLong("SELECT window_sum(x) AS result FROM number"));
+    }
+
+    @Test
+    public void windowFunctionCallsValueAndInverse() throws SQLiteException {
+        SQLiteStatement statement = connection.createStatement("SELECT window_sum(x) OVER (ORDER BY x ROWS BETWEEN 1 PRECEDING AND CURRENT ROW) AS result FROM number ORDER BY x");
+        try {
+            List<Long> sums = statement.readList(new SQLiteStatement.RowValueCallback<Long>() {
+                @Override
+                public Long readRow(SQLiteRow row) throws SQLiteException {
+                    return row.getLong("result");
+                }
+            });
+            assertEquals(Arrays.asList(1L, 3L, 5L, 7L), sums);
+        } finally {
+            statement.finish();
+        }
+    }
+
+    private Long loadLong(String sql) throws SQLiteException {
+        SQLiteStatement statement = connection.createStatement(sql);
+        try {
+            return statement.load(new SQLiteStatement.RowValueCallback<Long>() {
+                @Override
+                public Long readRow(SQLiteRow row) throws SQLiteException {
+                    return row.getLong("result");
+                }
+            });
+        } finally {
+            statement.finish();
+        }
+    }
+}
@@ -33,7 +33,9 @@ LOCAL_CFLAGS += -DSQLCIPHER_CRYPTO_OPENSSL
 LOCAL_CFLAGS += -DSQLITE_DISABLE_LFS
 LOCAL_MODULE := sqlite-native-driver
 LOCAL_SRC_FILES := ../$(SQLCIPHER_DIR)/sqlite3.c \
-    ../sqlite-rapidjson/sqlite-rapidjson.cpp
+    ../sqlite-rapidjson/sqlite-rapidjson.cpp \
+    ../sqlite-diacritic/sqlite-diacritic.cpp \
+    ../sqlite-profiler/sqlite-profiler.cpp
 
 include $(BUILD_SHARED_LIBRARY)
 
@@ -0,0 +1,278 @@
+//
+// Native implementation of the DIACRITIC collation.
+//
+// Strings are compared by their case and diacritic folded code points (so "é" sorts next to "e" instead of after "z").
+// Strings which are equal after folding are equal, like with NOCASE, so "abc" = "ABC" and "é" = "e" for =, UNIQUE, GROUP BY and DISTINCT.
+//
+
+#include "sqlite-diacritic.h"
+#include <stdint.h>
+#include <string.h>
+
+// Markers for letters folding to two code points
+#define FOLD_KEEP '0'
+#define FOLD_IJ '1'
+#define FOLD_OE '2'
+#define FOLD_AE '3'
+#define FOLD_SS '4'
+#define FOLD_DZ '5'
+#define FOLD_LJ '6'
+#define FOLD_NJ '7'
+#define FOLD_OI '8'
+#define FOLD_OU '9'
+
+// U+00C0 - U+00FF
+static const char latin1Folding[] =
+        "aaaaaa3ceeeeiiiidnooooo0ouuuuy04"
+        "aaaaaa3ceeeeiiiidnooooo0ouuuuy0y";
+
+// U+0100 - U+017F
+static const char latinExtendedAFolding[] =
+        "aaaaaacccccccc" "dddd" "eeeeeeeeee" "gggggggg" "hhhh" "iiiiiiiiii" "11" "jj" "kkk" "llllllllll"
+        "nnnnnnnnn" "oooooo" "22" "rrrrrr" "ssssssss" "tttttt" "uuuuuuuuuuuu" "ww" "yyy" "zzzzzz" "s";
+
+// U+0180 - U+024F, e.g. ơ and ư (Vietnamese), ș and ț (Romanian), derived from the Unicode decompositions and letter names
+static const char latinExtendedBFolding[] =
+        "bbbb000cc0ddd0000ffg000ikkl00nnooo88pp00000ttttuu0vyyzz000000000"
+        "0000555666777aaiioouuuuuuuuuu0aaaa33ggggkkoooo00j555gg00nnaa33oo"
+        "aaaaeeeeiiiioooorrrruuuusstt00hhnd99zzaaeeooooooooyylntj00acclts"
+        "z00b00eejj0qrryy";
+
+// U+1E00 - U+1EFF, e.g. ệ and ố (Vietnamese)
+static const char latinExtendedAdditionalFolding[] =
+        "aabbbbbbccddddddddddeeeeeeeeeeffgghhhhhhhhhhiiiikkkkkkllllllllmm"
+        "mmmmnnnnnnnnoooooooopppprrrrrrrrssssssssssttttttttuuuuuuuuuuvvvv"
+        "wwwwwwwwwwxxxxyyzzzzzzhtwyasss40aaaaaaaaaaaaaaaaaaaaaaaaeeeeeeee"
+        "eeeeeeeeiiiioooooooooooooooooooooooouuuuuuuuuuuuuuyyyyyyyy0000yy";
+
+typedef struct {
+    const unsigned char *position;
+    const unsigned char *end;
+    uint32_t pending;
+} fold_iterator;
+
+static uint32_t decode_utf8(const unsigned char **position, const unsigned char *end) {
+    const unsigned char *p = *position;
+    uint32_t c = *p++;
+    int continuationBytes;
+    if (c < 0x80) {
+        continuationBytes = 0;
+    } else if ((c & 0xE0) == 0xC0) {
+        c &= 0x1F;
+        continuationBytes = 1;
+    } else if ((c & 0xF0) == 0xE0) {
+        c &= 0x0F;
+        continuationBytes = 2;
+    } else if ((c & 0xF8) == 0xF0) {
+        c &= 0x07;
+        continuationBytes = 3;
+    } else {
+        // Invalid lead byte: compare it as is
+        *position = p;
+        return c;
+    }
+
+    for (int i = 0; i < continuationBytes; i++) {
+        if (p >= end || (*p & 0xC0) != 0x80) {
+            break;
+        }
+        c = (c << 6) | (*p++ & 0x3F);
+    }
+    *position = p;
+    return c;
+}
+
+static int is_combining_mark(uint32_t c) {
+    return (c >= 0x0300 && c <= 0x036F) || (c >= 0x1AB0 && c <= 0x1AFF) || (c >= 0x1DC0 && c <= 0x1DFF) || (c >= 0x20D0 && c <= 0x20FF) || (c >= 0xFE20 && c <= 0xFE2F);
+}
+
+// Letters of Latin Extended-B and Latin Extended Additional without a base letter, upper to lower case
+static uint32_t fold_latin_case(uint32_t c) {
+    switch (c) {
+        case 0x0184: return 0x0185;
+        case 0x0186: return 0x0254;
+        case 0x0189: return 0x0256;
+        case 0x018E: return 0x01DD;
+        case 0x018F: return 0x0259;
+        case 0x0190: return 0x025B;
+        case 0x0194: return 0x0263;
+        case 0x0196: return 0x0269;
+        case 0x019C: return 0x026F;
+        case 0x01A6: return 0x0280;
+        case 0x01A7: return 0x01A8;
+        case 0x01A9: return 0x0283;
+        case 0x01B1: return 0x028A;
+        case 0x01B7: return 0x0292;
+        case 0x01B8: return 0x01B9;
+        case 0x01BC: return 0x01BD;
+        case 0x01EE: return 0x01EF;
+        case 0x01F6: return 0x0195;
+        case 0x01F7: return 0x01BF;
+        case 0x021C: return 0x021D;
+        case 0x0241: return 0x0242;
+        case 0x0244: return 0x0289;
+        case 0x0245: return 0x028C;
+        case 0x024A: return 0x024B;
+        case 0x1EFA: return 0x1EFB;
+        case 0x1EFC: return 0x1EFD;
+        default:
+            return c;
+    }
+}
+
+static uint32_t fold_greek(uint32_t c) {
+    switch (c) {
+        case 0x0386: case 0x03AC: return 0x03B1;
+        case 0x0388: case 0x03AD: return 0x03B5;
+        case 0x0389: case 0x03AE: return 0x03B7;
+        case 0x038A: case 0x0390: case 0x03AA: case 0x03AF: case 0x03CA: return 0x03B9;
+        case 0x038C: case 0x03CC: return 0x03BF;
+        case 0x038E: case 0x03AB: case 0x03B0: case 0x03CB: case 0x03CD: return 0x03C5;
+        case 0x038F: case 0x03CE: return 0x03C9;
+        case 0x03C2: return 0x03C3;
+        default:
+            if (c >= 0x0391 && c <= 0x03A9) {
+                return c + 0x20;
+            }
+            return c;
+    }
+}
+
+static uint32_t fold_cyrillic(uint32_t c) {
+    if (c == 0x0401 || c == 0x0451) {
+        return 0x0435;
+    }
+    if (c >= 0x0400 && c <= 0x040F) {
+        return c + 0x50;
+    }
+    if (c >= 0x0410 && c <= 0x042F) {
+        return c + 0x20;
+    }
+    if (c == 0x04C0) {
+        return 0x04CF;
+    }
+    if ((c >= 0x0460 && c <= 0x0481) || (c >= 0x048A && c <= 0x04BF) || (c >= 0x04D0 && c <= 0x052F)) {
+        return c | 1;
+    }
+    if (c >= 0x04C1 && c <= 0x04CE && (c & 1)) {
+        return c + 1;
+    }
+    return c;
+}
+
+// Folds a single code point. Returns the first folded code point and stores a second one in *second (0 if none).
+static uint32_t fold(uint32_t c, uint32_t *second) {
+    *second = 0;
+    if (c < 0x80) {
+        return (c >= 'A' && c <= 'Z') ? c + 0x20 : c;
+    }
+
+    char folded;
+    if (c >= 0x00C0 && c <= 0x00FF) {
+        folded = latin1Folding[c - 0x00C0];
+        if (folded == FOLD_KEEP) {
+            // ×, ÷ and þ stay, Þ becomes þ
+            return c == 0x00DE ? 0x00FE : c;
+        }
+    } else if (c >= 0x0100 && c <= 0x017F) {
+        folded = latinExtendedAFolding[c - 0x0100];
+    } else if (c >= 0x0180 && c <= 0x024F) {
+        folded = latinExtendedBFolding[c - 0x0180];
+        if (folded == FOLD_KEEP) {
+            return fold_latin_case(c);
+        }
+    } else if (c >= 0x0370 && c <= 0x03FF) {
+        return fold_greek(c);
+    } else if (c >= 0x0400 && c <= 0x052F) {
+        return fold_cyrillic(c);
+    } else if (c >= 0x0531 && c <= 0x0556) {
+        return c + 0x30;
+    } else if (c >= 0x1E00 && c <= 0x1EFF) {
+        folded = latinExtendedAdditionalFolding[c - 0x1E00];
+        if (folded == FOLD_KEEP) {
+            return fold_latin_case(c);
+        }
+    } else if (c >= 0xFF21 && c <= 0xFF3A) {
+        return c + 0x20;
+    } else {
+        return c;
+    }
+
+    switch (folded) {
+        case FOLD_IJ:
+            *second = 'j';
+            return 'i';
+        case FOLD_OE:
+            *second = 'e';
+            return 'o';
+        case FOLD_OI:
+            *second = 'i';
+            return 'o';
+        case FOLD_OU:
+            *second = 'u';
+            return 'o';
+        case FOLD_AE:
+            *second = 'e';
+            return 'a';
+        case FOLD_SS:
+            *second = 's';
+            return 's';
+        case FOLD_DZ:
+            *second = 'z';
+            return 'd';
+        case FOLD_LJ:
+            *second = 'j';
+            return 'l';
+        case FOLD_NJ:
+            *second = 'j';
+            return 'n';
+        default:
+            return (uint32_t) folded;
+    }
+}
+
+// Returns the next folded code point or 0 at the end of the string
+static uint32_t next_folded(fold_iterator *iterator) {
+    if (iterator->pending) {
+        uint32_t c = iterator->pending;
+        iterator->pending = 0;
+        return c;
+    }
+
+    while (iterator->position < iterator->end) {
+        uint32_t c = decode_utf8(&iterator->position, iterator->end);
+        if (is_combining_mark(c)) {
+            continue;
+        }
+        return fold(c, &iterator->pending);
+    }
+    return 0;
+}
+
+int sqlite_diacritic_compare(void *, int leftLength, const void *left, int rightLength, const void *right) {
+    const unsigned char *l = (const unsigned char *) left;
+    const unsigned char *r = (const unsigned char *) right;
+    if (l == NULL) {
+        leftLength = 0;
+    }
+    if (r == NULL) {
+        rightLength = 0;
+    }
+
+    fold_iterator leftIterator = {l, l + leftLength, 0};
+    fold_iterator rightIterator = {r, r + rightLength, 0};
+    for (;;) {
+        uint32_t leftChar = next_folded(&leftIterator);
+        uint32_t rightChar = next_folded(&rightIterator);
+        if (leftChar != rightChar) {
+            return leftChar < rightChar ? -1 : 1;
+        }
+        if (leftChar == 0) {
+            return 0;
+        }
+    }
+}
+
+int sqlite_register_diacritic_collation(sqlite3 *connection, const char *name) {
+    return sqlite3_create_collation(connection, name, SQLITE_UTF8, NULL, sqlite_diacritic_compare);
+}
@@ -0,0 +1,14 @@
+//
+// Native implementation of the DIACRITIC collation.
+//
+
+#ifndef SQLITE_DIACRITIC_H
+#define SQLITE_DIACRITIC_H
+
+#include "../sqlcipher/sqlite3.h"
+
+int sqlite_register_diacritic_collation(sqlite3 *connection, const char *name);
+
+int sqlite_diacritic_compare(void *arg, int leftLength, const void *left, int rightLength, const void *right);
+
+#endif //SQLITE_DIACRITIC_H
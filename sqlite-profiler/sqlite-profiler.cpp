@@ -0,0 +1,275 @@
+//
+// Aggregates the runtime of statements per normalized SQL text, reported by sqlite3_trace_v2.
+//
+// The statements are kept in an open addressing hash table of fixed size, so the trace callback never allocates or locks.
+// A slot is claimed by setting its hash with compare and swap, its counters are updated with atomic additions.
+//
+
+#include "sqlite-profiler.h"
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+
+typedef struct profiler_slot {
+    volatile uint64_t hash; // 0 while the slot is free
+    volatile int ready; // Set once sql has been written
+    char sql[SQLITE_PROFILER_SQL_LENGTH];
+    volatile int64_t count;
+    volatile int64_t total_ns;
+    volatile int64_t max_ns;
+    volatile int64_t histogram[SQLITE_PROFILER_BUCKETS];
+} profiler_slot;
+
+struct sqlite_profiler {
+    int capacity;
+    volatile int64_t dropped;
+    profiler_slot *slots;
+};
+
+static uint64_t load64(volatile uint64_t *value) {
+#if defined(__LP64__)
+    return *value;
+#else
+    // Plain 64 bit reads may tear on 32 bit platforms
+    return __sync_fetch_and_add(value, 0);
+#endif
+}
+
+static int64_t read_counter(volatile int64_t *counter, int reset) {
+    return reset ? __sync_fetch_and_and(counter, 0) : __sync_fetch_and_add(counter, 0);
+}
+
+static int is_identifier_char(unsigned char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '$' || c >= 0x80;
+}
+
+static int is_space(unsigned char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\v';
+}
+
+// Skips a quoted literal or identifier starting at sql. Doubled quotes are part of it.
+static const char *skip_quoted(const char *sql, char quote) {
+    const char *p = sql + 1;
+    while (*p) {
+        if (*p == quote) {
+            if (p[1] != quote) {
+                return p + 1;
+            }
+            p++;
+        }
+        p++;
+    }
+    return p;
+}
+
+// Collapses whitespace and replaces string, blob and numeric literals with ?, so statements differing only in literals are aggregated.
+// Returns the length of the normalized statement.
+static int normalize(const char *sql, char *normalized) {
+    const int limit = SQLITE_PROFILER_SQL_LENGTH - 1;
+    int length = 0;
+    const char *p = sql;
+    while (*p && length < limit) {
+        unsigned char c = (unsigned char) *p;
+        const char *start = p;
+        if (is_space(c)) {
+            while (is_space((unsigned char) *p)) {
+                p++;
+            }
+            if (length > 0 && *p) {
+                normalized[length++] = ' ';
+            }
+            continue;
+        }
+
+        int literal = 0;
+        if (c == '\'') {
+            p = skip_quoted(p, '\'');
+            literal = 1;
+        } else if ((c == 'x' || c == 'X') && p[1] == '\'') {
+            p = skip_quoted(p + 1, '\'');
+            literal = 1;
+        } else if ((c >= '0' && c <= '9') || (c == '.' && p[1] >= '0' && p[1] <= '9')) {
+            while (is_identifier_char((unsigned char) *p) || *p == '.' ||
+                   ((*p == '+' || *p == '-') && (p[-1] == 'e' || p[-1] == 'E'))) {
+                p++;
+            }
+            literal = 1;
+        } else if (c == '?') {
+            // Numbered parameters are kept
+            p++;
+            while (*p >= '0' && *p <= '9') {
+                p++;
+            }
+        } else if (c == '"' || c == '`') {
+            p = skip_quoted(p, (char) c);
+        } else if (c == '[') {
+            const char *end = strchr(p, ']');
+            p = end ? end + 1 : p + strlen(p);
+        } else if (is_identifier_char(c)) {
+            while (is_identifier_char((unsigned char) *p)) {
+                p++;
+            }
+        } else {
+            p++;
+        }
+
+        if (literal) {
+            normalized[length++] = '?';
+        } else {
+            int size = (int) (p - start);
+            if (size > limit - length) {
+                size = limit - length;
+            }
+            memcpy(normalized + length, start, (size_t) size);
+            length += size;
+        }
+    }
+    normalized[length] = 0;
+    return length;
+}
+
+static uint64_t hash_sql(const char *sql, int length) {
+    // FNV-1a
+    uint64_t hash = 14695981039346656037ULL;
+    for (int i = 0; i < length; i++) {
+        hash ^= (unsigned char) sql[i];
+        hash *= 1099511628211ULL;
+    }
+    return hash == 0 ? 1 : hash;
+}
+
+static profiler_slot *find_slot(sqlite_profiler *profiler, uint64_t hash, const char *sql, int length) {
+    int mask = profiler->capacity - 1;
+    for (int i = 0; i < profiler->capacity; i++) {
+        profiler_slot *slot = &profiler->slots[(hash + i) & mask];
+        uint64_t current = load64(&slot->hash);
+        if (current == 0) {
+            current = __sync_val_compare_and_swap(&slot->hash, (uint64_t) 0, hash);
+            if (current == 0) {
+                memcpy(slot->sql, sql, (size_t) length + 1);
+                __sync_synchronize();
+                slot->ready = 1;
+                return slot;
+            }
+        }
+        if (current == hash) {
+            return slot;
+        }
+    }
+    return NULL;
+}
+
+static int get_bucket(int64_t ns) {
+    int64_t us = ns / 1000;
+    int bucket = 0;
+    while (us > 1 && bucket < SQLITE_PROFILER_BUCKETS - 1) {
+        us >>= 1;
+        bucket++;
+    }
+    return bucket;
+}
+
+static void record(profiler_slot *slot, int64_t ns) {
+    __sync_fetch_and_add(&slot->count, (int64_t) 1);
+    __sync_fetch_and_add(&slot->total_ns, ns);
+    __sync_fetch_and_add(&slot->histogram[get_bucket(ns)], (int64_t) 1);
+    int64_t max = __sync_fetch_and_add(&slot->max_ns, (int64_t) 0);
+    while (ns > max) {
+        int64_t previous = __sync_val_compare_and_swap(&slot->max_ns, max, ns);
+        if (previous == max) {
+            break;
+        }
+        max = previous;
+    }
+}
+
+static int trace_callback(unsigned type, void *context, void *p, void *x) {
+    if (type != SQLITE_TRACE_PROFILE) {
+        return 0;
+    }
+
+    sqlite_profiler *profiler = (sqlite_profiler *) context;
+    const char *sql = sqlite3_sql((sqlite3_stmt *) p);
+    if (sql == NULL) {
+        return 0;
+    }
+
+    char normalized[SQLITE_PROFILER_SQL_LENGTH];
+    int length = normalize(sql, normalized);
+    profiler_slot *slot = find_slot(profiler, hash_sql(normalized, length), normalized, length);
+    if (slot == NULL) {
+        __sync_fetch_and_add(&profiler->dropped, (int64_t) 1);
+        return 0;
+    }
+    record(slot, *(sqlite3_int64 *) x);
+    return 0;
+}
+
+sqlite_profiler *sqlite_profiler_create(int capacity) {
+    int size = 1;
+    while (size < capacity && size < (1 << 20)) {
+        size <<= 1;
+    }
+
+    sqlite_profiler *profiler = (sqlite_profiler *) calloc(1, sizeof(sqlite_profiler));
+    if (profiler == NULL) {
+        return NULL;
+    }
+    profiler->slots = (profiler_slot *) calloc((size_t) size, sizeof(profiler_slot));
+    if (profiler->slots == NULL) {
+        free(profiler);
+        return NULL;
+    }
+    profiler->capacity = size;
+    return profiler;
+}
+
+void sqlite_profiler_destroy(sqlite_profiler *profiler) {
+    if (profiler == NULL) {
+        return;
+    }
+    free(profiler->slots);
+    free(profiler);
+}
+
+int sqlite_profiler_capacity(sqlite_profiler *profiler) {
+    return profiler->capacity;
+}
+
+int sqlite_profiler_attach(sqlite3 *connection, sqlite_profiler *profiler) {
+    return sqlite3_trace_v2(connection, SQLITE_TRACE_PROFILE, trace_callback, profiler);
+}
+
+int sqlite_profiler_detach(sqlite3 *connection) {
+    return sqlite3_trace_v2(connection, 0, NULL, NULL);
+}
+
+int sqlite_profiler_snapshot(sqlite_profiler *profiler, sqlite_profiler_entry *entries, int capacity, int reset) {
+    int count = 0;
+    for (int i = 0; i < profiler->capacity && count < capacity; i++) {
+        profiler_slot *slot = &profiler->slots[i];
+        if (!slot->ready) {
+            continue;
+        }
+        __sync_synchronize();
+
+        sqlite_profiler_entry *entry = &entries[count];
+        // record() increments count first, so the other counters may already include executions finishing after this read.
+        entry->count = read_counter(&slot->count, reset);
+        if (entry->count == 0) {
+            continue;
+        }
+        memcpy(entry->sql, slot->sql, SQLITE_PROFILER_SQL_LENGTH);
+        entry->total_ns = read_counter(&slot->total_ns, reset);
+        entry->max_ns = read_counter(&slot->max_ns, reset);
+        for (int bucket = 0; bucket < SQLITE_PROFILER_BUCKETS; bucket++) {
+            entry->histogram[bucket] = read_counter(&slot->histogram[bucket], reset);
+        }
+        count++;
+    }
+    return count;
+}
+
+sqlite3_int64 sqlite_profiler_dropped(sqlite_profiler *profiler, int reset) {
+    return read_counter(&profiler->dropped, reset);
+}
@@ -0,0 +1,49 @@
+//
+// Aggregates the runtime of statements per normalized SQL text, reported by sqlite3_trace_v2.
+//
+
+#ifndef SQLITE_PROFILER_H
+#define SQLITE_PROFILER_H
+
+#include "../sqlcipher/sqlite3.h"
+
+// Normalized statements are truncated to this length (including the terminating 0)
+#define SQLITE_PROFILER_SQL_LENGTH 256
+// Bucket i counts runtimes from 2^i to 2^(i+1) microseconds. The first bucket also counts shorter runtimes, the last one all longer runtimes.
+#define SQLITE_PROFILER_BUCKETS 24
+
+// Counters are updated with atomic operations only, so snapshots may be taken from any thread while statements run.
+typedef struct sqlite_profiler sqlite_profiler;
+
+typedef struct sqlite_profiler_entry {
+    char sql[SQLITE_PROFILER_SQL_LENGTH]; // Whitespace is collapsed and literals are replaced by ?
+    sqlite3_int64 count;
+    sqlite3_int64 total_ns;
+    sqlite3_int64 max_ns;
+    sqlite3_int64 histogram[SQLITE_PROFILER_BUCKETS];
+} sqlite_profiler_entry;
+
+// Creates a profiler for up to capacity distinct statements (rounded up to a power of two). Executions of further statements are only counted as dropped.
+sqlite_profiler *sqlite_profiler_create(int capacity);
+
+// The profiler must be detached from all connections before.
+void sqlite_profiler_destroy(sqlite_profiler *profiler);
+
+int sqlite_profiler_capacity(sqlite_profiler *profiler);
+
+// Registers the profiler as the trace callback (SQLITE_TRACE_PROFILE) of the connection, replacing other trace callbacks. A profiler may be attached to several connections.
+int sqlite_profiler_attach(sqlite3 *connection, sqlite_profiler *profiler);
+
+// Unregisters the trace callback. Once it returns, the profiler is no longer called by the connection.
+int sqlite_profiler_detach(sqlite3 *connection);
+
+// Copies the statements executed since they were last reset into entries, at most capacity. Returns the number of entries copied.
+// If reset is non-zero, the counters are reset while they are copied, so no execution is lost or reported twice.
+// The counters of an entry are read one after another without a lock, so they are only approximately consistent: an execution finishing during a snapshot
+// may be in the count of one snapshot and in the runtime, maximum and histogram of the next.
+int sqlite_profiler_snapshot(sqlite_profiler *profiler, sqlite_profiler_entry *entries, int capacity, int reset);
+
+// The number of executions, which were not recorded because all entries were taken.
+sqlite3_int64 sqlite_profiler_dropped(sqlite_profiler *profiler, int reset);
+
+#endif //SQLITE_PROFILER_H
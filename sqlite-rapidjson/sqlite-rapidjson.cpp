@@ -3,250 +3,1953 @@
 //
 
 #include "sqlite-rapidjson.h"
-#include "../rapidjson/include/rapidjson/document.h"
+#include "../rapidjson/include/rapidjson/reader.h"
+#include "../rapidjson/include/rapidjson/filereadstream.h"
+#include "../rapidjson/include/rapidjson/memorystream.h"
+#include "../rapidjson/include/rapidjson/writer.h"
+#include "../rapidjson/include/rapidjson/error/en.h"
 #include <android/log.h>
+#include <stdio.h>
+#include <stdarg.h>
+#include <string.h>
+#include <ctype.h>
+#include <unistd.h>
+#include <time.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <pthread.h>
+#include <string>
 #include <vector>
-#include <sstream>
+#include <deque>
+#include <map>
+#include <algorithm>
+#include <limits>
 
 using namespace rapidjson;
 
-int process_table(sqlite3 *connection, const Value &tableObj, primaryKeysFn getPrimaryKeysFn);
+#define READ_BUFFER_SIZE 65536
+#define WRITE_BUFFER_SIZE 65536
+#define DEFAULT_PROGRESS_INTERVAL 1000
+// Rows per batch handed from the parser thread to the connection's thread
+#define PIPELINE_BATCH_ROWS 256
+// Batches in flight, bounds the memory the parser may run ahead
+#define PIPELINE_BATCH_COUNT 4
+
+enum cell_type {
+    CELL_NULL,
+    CELL_INTEGER,
+    CELL_DOUBLE,
+    CELL_TEXT
+};
+
+struct cell {
+    cell_type type;
+    int64_t integer;
+    double real;
+    // The offset of the text in the row's text buffer
+    size_t textOffset;
+    size_t length;
+};
+
+// The values of a single row or deleted key. Text is copied into the row, so it stays valid while the row is written.
+struct row {
+    std::vector<cell> cells;
+    std::string copiedText;
+};
+
+// Column affinities, see https://www.sqlite.org/datatype3.html#determination_of_column_affinity
+enum column_affinity {
+    AFFINITY_UNKNOWN,
+    AFFINITY_INTEGER,
+    AFFINITY_TEXT,
+    AFFINITY_BLOB,
+    AFFINITY_REAL,
+    AFFINITY_NUMERIC
+};
+
+struct table_schema {
+    std::vector<std::string> columns;
+    std::vector<column_affinity> affinities;
+    std::vector<std::string> primaryKeys;
+};
+
+struct sqlite_import_cache {
+    int schemaVersion;
+    std::map<std::string, table_schema> tables;
+};
+
+// A table whose rows missing in the JSON are deleted once all tables have been written
+struct pending_purge {
+    std::string table;
+    std::vector<std::string> primaryKeys;
+    // The statistics of the table, which is reported as finished after the purge
+    sqlite_import_progress progress;
+};
+
+// The state of importing a single table
+struct table_import {
+    sqlite3 *connection;
+    sqlite_import_options *options;
+    std::string table;
+    std::vector<std::string> columns;
+    std::vector<std::string> primaryKeys;
+    std::vector<int> primaryKeyIndexes;
+    sqlite3_stmt *updateStatement;
+    sqlite3_stmt *insertStatement;
+    sqlite3_stmt *insertTempKeysStatement;
+    sqlite3_stmt *deleteStatement;
+    // The parameter index of each column (or key for the temp table) in the statements, 0 if a column is not used
+    std::vector<int> updateParameters;
+    std::vector<int> insertParameters;
+    std::vector<int> insertTempKeysParameters;
+    int tryUpdate;
+    int upsert;
+    // Delta imports only upsert and delete the listed rows instead of replacing the table's contents
+    int delta;
+    int active;
+    sqlite_import_progress progress;
+    sqlite3_int64 nextProgress;
+    sqlite3_int64 startTime;
+    // The options' cache or, if there is none, a cache for this import only
+    sqlite_import_cache *cache;
+    sqlite_import_cache localCache;
+    int cacheChecked;
+    // The affinity of each imported column
+    std::vector<column_affinity> affinities;
+    // The tables to purge at the end of the import, each has a temporary table of the imported keys
+    std::vector<pending_purge> purges;
+    int purge;
+    // Set while the import's own transaction is open, imports run in the caller's transaction otherwise
+    int ownsTransaction;
+    // Chunked imports commit every few rows, counting the rows and bytes written since the last commit
+    int chunked;
+    sqlite3_int64 chunkRows;
+    sqlite3_int64 chunkBytes;
+    // The position in the document: the index of the current table and the rows (or deleted keys) read from it
+    int tableIndex;
+    sqlite3_int64 rowIndex;
+    // Where a resumed import continues, everything before has been committed by a previous run
+    int resumeTable;
+    sqlite3_int64 resumeRow;
+};
+
+void init_import(table_import *import, sqlite3 *connection, sqlite_import_options *options);
+int begin_import(table_import *import);
+int finish_import(table_import *import, int result);
+int begin_transaction(table_import *import);
+int commit_chunk(table_import *import);
+int purge_tables(table_import *import);
+void order_purges(table_import *import, std::vector<size_t> &order);
+void visit_purge(size_t index, const std::vector<std::vector<size_t> > &children, std::vector<bool> &visited, std::vector<size_t> &order);
+void add_progress(sqlite_import_progress *total, const sqlite_import_progress &progress);
+bool is_committed(const table_import *import);
+int next_row(table_import *import, bool written, sqlite3_int64 bytes);
+int has_deferred_violations(sqlite3 *connection);
+int load_marker(table_import *import);
+int save_marker(table_import *import);
+
+int begin_table(table_import *import, const std::string &table, const std::vector<std::string> &columns);
+int import_row(table_import *import, const row &values);
+int delete_row(table_import *import, const row &keys);
+int finish_table(table_import *import);
+void abort_table(table_import *import);
+int report_progress(table_import *import, int tableFinished);
+int get_table_schema(table_import *import, const std::string &table, const table_schema **schema);
+int load_table_schema(sqlite3 *connection, const std::string &table, table_schema *schema);
+column_affinity get_affinity(const char *declaredType);
+sqlite3_int64 current_time_ms();
 const char * print_error(sqlite3 *connection, const char *table, int code);
+void set_error(sqlite_import_options *options, const char *format, ...);
+void set_error(sqlite_export_options *options, const char *format, ...);
+void print_message(char *message, size_t size, const char *format, va_list arguments);
 void drop_temp_table_if_necessary(sqlite3 *connection, const char *table, int primaryKeysLength);
 int execute_statement(sqlite3 *connection, std::string sql);
-int delete_from_table(sqlite3 *connection, const char *table, const char **keys, int length, std::vector<int64_t> usedPrimaryKeys);
+int delete_from_table(sqlite3 *connection, const char *table, const std::vector<std::string> &keys);
 void finish_statements(sqlite3_stmt *updateStatement, sqlite3_stmt *insertStatement, sqlite3_stmt *insertTempKeysStatement);
-int bind_statement(sqlite3_stmt *statement, const Value &columns, const Value &values);
-int create_temp_table(sqlite3 *connection, const char *table, const char **keys, int length);
-int create_insert_statement_for_temp_table(sqlite3 *connection, const char *table, const char **keys, int length, sqlite3_stmt **statement);
-int create_update_statement(sqlite3 *connection, const char *table, const Value &columns, const char **primaryKeys, int pkLength, sqlite3_stmt **statement);
-int create_insert_statement(sqlite3 *connection, const char *table, const Value &columns, int ignoreExisting, sqlite3_stmt **statement);
-int index_of(const char *string, const Value &columns);
-int contains(const char **array, int length, const char *string);
+int bind_cell(sqlite3_stmt *statement, int index, const row &values, const cell &value, column_affinity affinity);
+int bind_statement(sqlite3_stmt *statement, const std::vector<int> &parameters, const std::vector<column_affinity> &affinities, const row &values);
+void resolve_parameters(sqlite3_stmt *statement, const std::vector<std::string> &names, std::vector<int> &parameters);
+int create_temp_table(sqlite3 *connection, const char *table, const std::vector<std::string> &keys);
+int create_insert_statement_for_temp_table(sqlite3 *connection, const char *table, const std::vector<std::string> &keys, sqlite3_stmt **statement);
+int create_update_statement(sqlite3 *connection, const char *table, const std::vector<std::string> &columns, const std::vector<std::string> &primaryKeys, sqlite3_stmt **statement);
+int create_insert_statement(sqlite3 *connection, const char *table, const std::vector<std::string> &columns, int ignoreExisting, sqlite3_stmt **statement);
+int create_upsert_statement(sqlite3 *connection, const char *table, const std::vector<std::string> &columns, const std::vector<std::string> &primaryKeys, sqlite3_stmt **statement);
+int create_delete_statement(sqlite3 *connection, const char *table, const std::vector<std::string> &primaryKeys, sqlite3_stmt **statement);
+int index_of(const std::string &string, const std::vector<std::string> &columns);
+int contains(const std::vector<std::string> &array, const std::string &string);
+
+void add_null(row &values) {
+    cell value = cell();
+    value.type = CELL_NULL;
+    values.cells.push_back(value);
+}
+
+void add_integer(row &values, int64_t integer) {
+    cell value = cell();
+    value.type = CELL_INTEGER;
+    value.integer = integer;
+    values.cells.push_back(value);
+}
+
+void add_double(row &values, double real) {
+    cell value = cell();
+    value.type = CELL_DOUBLE;
+    value.real = real;
+    values.cells.push_back(value);
+}
+
+void add_text(row &values, const char *text, size_t length) {
+    cell value = cell();
+    value.type = CELL_TEXT;
+    value.length = length;
+    value.textOffset = values.copiedText.size();
+    values.copiedText.append(text, length);
+    values.cells.push_back(value);
+}
+
+void clear_row(row &values) {
+    values.cells.clear();
+    values.copiedText.clear();
+}
+
+const char * cell_text(const row &values, const cell &value) {
+    return values.copiedText.data() + value.textOffset;
+}
+
+int sqlite_import_json(sqlite3 *connection, const char *json, primaryKeysFn getPrimaryKeysFn) {
+    sqlite_import_options options = sqlite_import_options();
+    options.primary_keys = getPrimaryKeysFn;
+    return sqlite_import_json_text(connection, json, &options);
+}
+
+// Receives the tables and rows of a parsed document
+class ImportSink {
+public:
+    virtual ~ImportSink() {
+    }
+
+    virtual int beginTable(const std::string &table, const std::vector<std::string> &columns, bool delta) = 0;
+
+    virtual int importRow(const row &values) = 0;
+
+    virtual int deleteRow(const row &keys) = 0;
+
+    virtual int finishTable() = 0;
+};
+
+// Applies the document on the parser's thread
+class DirectSink : public ImportSink {
+public:
+    DirectSink(table_import *import) : import(import) {
+    }
+
+    int beginTable(const std::string &table, const std::vector<std::string> &columns, bool delta) {
+        import->delta = delta;
+        return begin_table(import, table, columns);
+    }
+
+    int importRow(const row &values) {
+        return import_row(import, values);
+    }
+
+    int deleteRow(const row &keys) {
+        return delete_row(import, keys);
+    }
+
+    int finishTable() {
+        return finish_table(import);
+    }
+
+private:
+    table_import *import;
+};
+
+class ImportHandler : public BaseReaderHandler<UTF8<>, ImportHandler> {
+public:
+    ImportHandler(ImportSink *sink, sqlite_import_options *options) : sink(sink), options(options), state(EXPECT_ROOT), skipReturnState(EXPECT_ROOT), skipDepth(0), result(SQLITE_OK), delta(false) {
+    }
+
+    int getResult() const {
+        return result;
+    }
+
+    bool isDone() const {
+        return state == DONE;
+    }
+
+    bool Null() {
+        if (!beginValue()) {
+            return scalar();
+        }
+        add_null(values);
+        return endValue();
+    }
+
+    bool Bool(bool b) {
+        if (!beginValue()) {
+            return scalar();
+        }
+        add_integer(values, b);
+        return endValue();
+    }
+
+    bool Int(int i) {
+        return Int64(i);
+    }
+
+    bool Uint(unsigned u) {
+        return Int64(u);
+    }
+
+    bool Int64(int64_t i) {
+        if (!beginValue()) {
+            return scalar();
+        }
+        add_integer(values, i);
+        return endValue();
+    }
+
+    bool Uint64(uint64_t u) {
+        if (u > (uint64_t) std::numeric_limits<int64_t>::max()) {
+            // Numbers exceeding int64 are treated as double
+            return Double((double) u);
+        }
+        return Int64((int64_t) u);
+    }
+
+    bool Double(double d) {
+        if (!beginValue()) {
+            return scalar();
+        }
+        add_double(values, d);
+        return endValue();
+    }
+
+    // Strings are never parsed in situ, so they are always copied into the row
+    bool String(const char *str, SizeType length, bool) {
+        if (beginValue()) {
+            add_text(values, str, length);
+            return endValue();
+        }
+        switch (state) {
+            case TABLE_NAME:
+                table.assign(str, length);
+                state = TABLE;
+                return true;
+            case COLUMNS:
+                columns.push_back(std::string(str, length));
+                return true;
+            default:
+                return scalar();
+        }
+    }
+
+    bool Key(const char *str, SizeType length, bool copy) {
+        std::string key(str, length);
+        if (state == ROOT) {
+            if (key == "current" || key == "delta") {
+                delta = key == "delta";
+                state = EXPECT_TABLES;
+            } else {
+                skip(ROOT);
+            }
+            return true;
+        }
+        if (state == TABLE) {
+            if (key == "table") {
+                state = TABLE_NAME;
+            } else if (key == "columns") {
+                state = EXPECT_COLUMNS;
+            } else if (key == (delta ? "upserts" : "values")) {
+                state = EXPECT_VALUES;
+            } else if (key == "deletes" && delta) {
+                state = EXPECT_DELETES;
+            } else {
+                skip(TABLE);
+            }
+            return true;
+        }
+        return state == SKIP || fail("unexpected key %s", key.c_str());
+    }
+
+    bool StartObject() {
+        switch (state) {
+            case EXPECT_ROOT:
+                state = ROOT;
+                return true;
+            case TABLES:
+                table.clear();
+                columns.clear();
+                pendingDeletes.clear();
+                tableStarted = false;
+                state = TABLE;
+                return true;
+            case SKIP:
+                skipDepth++;
+                return true;
+            default:
+                return fail("unexpected object");
+        }
+    }
+
+    bool EndObject(SizeType memberCount) {
+        switch (state) {
+            case ROOT:
+                state = DONE;
+                return true;
+            case TABLE:
+                // A table without values is imported as empty table
+                if (!tableStarted && !startTable()) {
+                    return false;
+                }
+                result = sink->finishTable();
+                state = TABLES;
+                return result == SQLITE_OK;
+            case SKIP:
+                return endSkipped();
+            default:
+                return fail("unexpected end of object");
+        }
+    }
+
+    bool StartArray() {
+        switch (state) {
+            case EXPECT_TABLES:
+                state = TABLES;
+                return true;
+            case EXPECT_COLUMNS:
+                state = COLUMNS;
+                return true;
+            case EXPECT_VALUES:
+                if (columns.empty()) {
+                    return fail("\"table\" and \"columns\" must precede the rows");
+                }
+                state = VALUES;
+                return tableStarted || startTable();
+            case VALUES:
+                clear_row(values);
+                state = ROW;
+                return true;
+            case EXPECT_DELETES:
+                state = DELETES;
+                // Without columns yet, the keys are kept until the table starts, as "columns" and "upserts" may still follow
+                return tableStarted || columns.empty() || startTable();
+            case DELETES:
+                clear_row(values);
+                state = DELETE_ROW;
+                return true;
+            case SKIP:
+                skipDepth++;
+                return true;
+            default:
+                return fail("unexpected array");
+        }
+    }
+
+    bool EndArray(SizeType elementCount) {
+        switch (state) {
+            case TABLES:
+                state = ROOT;
+                return true;
+            case COLUMNS:
+                state = TABLE;
+                return true;
+            case VALUES:
+                state = TABLE;
+                return true;
+            case ROW:
+                result = sink->importRow(values);
+                state = VALUES;
+                return result == SQLITE_OK;
+            case DELETES:
+                state = TABLE;
+                return true;
+            case DELETE_ROW:
+                state = DELETES;
+                return deleteRow();
+            case SKIP:
+                return endSkipped();
+            default:
+                return fail("unexpected end of array");
+        }
+    }
+
+private:
+    enum handler_state {
+        EXPECT_ROOT,
+        ROOT,
+        EXPECT_TABLES,
+        TABLES,
+        TABLE,
+        TABLE_NAME,
+        EXPECT_COLUMNS,
+        COLUMNS,
+        EXPECT_VALUES,
+        VALUES,
+        ROW,
+        EXPECT_DELETES,
+        DELETES,
+        DELETE_ROW,
+        SKIP,
+        DONE
+    };
+
+    ImportSink *sink;
+    sqlite_import_options *options;
+    handler_state state;
+    handler_state skipReturnState;
+    int skipDepth;
+    int result;
+    std::string table;
+    std::vector<std::string> columns;
+    bool tableStarted;
+    bool delta;
+    row values;
+    // Deleted keys read before the table could be started
+    std::vector<row> pendingDeletes;
+
+    void skip(handler_state returnState) {
+        skipReturnState = returnState;
+        skipDepth = 0;
+        state = SKIP;
+    }
+
+    bool scalar() {
+        if (state == SKIP) {
+            if (skipDepth == 0) {
+                state = skipReturnState;
+            }
+            return true;
+        }
+        return fail("unexpected value");
+    }
+
+    bool endSkipped() {
+        skipDepth--;
+        if (skipDepth == 0) {
+            state = skipReturnState;
+        }
+        return true;
+    }
+
+    // Returns whether a value belongs to a row (or a deleted key) rather than the document structure
+    bool beginValue() {
+        if (state == DELETES) {
+            // A single key
+            clear_row(values);
+            return true;
+        }
+        return state == ROW || state == DELETE_ROW;
+    }
+
+    bool endValue() {
+        return state != DELETES || deleteRow();
+    }
+
+    bool deleteRow() {
+        if (!tableStarted) {
+            pendingDeletes.push_back(values);
+            return true;
+        }
+        result = sink->deleteRow(values);
+        return result == SQLITE_OK;
+    }
+
+    bool startTable() {
+        if (table.empty() || (columns.empty() && !delta)) {
+            return fail("\"table\" and \"columns\" must precede \"values\"");
+        }
+        tableStarted = true;
+        result = sink->beginTable(table, columns, delta);
+        // Keys listed before the upserts are deleted first, keeping the order of the document
+        for (size_t i = 0; i < pendingDeletes.size() && result == SQLITE_OK; i++) {
+            result = sink->deleteRow(pendingDeletes[i]);
+        }
+        pendingDeletes.clear();
+        return result == SQLITE_OK;
+    }
+
+    bool fail(const char *format, const char *argument = "") {
+        set_error(options, format, argument);
+        result = SQLITE_ERROR;
+        return false;
+    }
+};
+
+// A rapidjson input stream reading chunks through a callback, e.g. from a Java InputStream
+class CallbackReadStream {
+public:
+    typedef char Ch;
+
+    CallbackReadStream(readFn read, void *context, char *buffer, size_t bufferSize) : read(read), context(context), buffer(buffer), bufferSize(bufferSize), current(buffer), end(buffer), count(0), eof(false), failed(false) {
+        fill();
+    }
+
+    Ch Peek() const {
+        return current < end ? *current : '\0';
+    }
+
+    Ch Take() {
+        if (current >= end) {
+            return '\0';
+        }
+        Ch c = *current++;
+        if (current == end) {
+            fill();
+        }
+        return c;
+    }
+
+    size_t Tell() const {
+        return count + (current - buffer);
+    }
+
+    // Not used for reading
+    Ch *PutBegin() { RAPIDJSON_ASSERT(false); return 0; }
+    void Put(Ch) { RAPIDJSON_ASSERT(false); }
+    void Flush() { RAPIDJSON_ASSERT(false); }
+    size_t PutEnd(Ch *) { RAPIDJSON_ASSERT(false); return 0; }
+
+    bool hasFailed() const {
+        return failed;
+    }
+
+private:
+    readFn read;
+    void *context;
+    char *buffer;
+    size_t bufferSize;
+    char *current;
+    char *end;
+    size_t count;
+    bool eof;
+    bool failed;
+
+    void fill() {
+        count += end - buffer;
+        current = end = buffer;
+        if (eof) {
+            return;
+        }
+
+        int length = read(context, buffer, (int) bufferSize);
+        if (length <= 0) {
+            eof = true;
+            failed = length < 0;
+            return;
+        }
+        end = buffer + length;
+    }
+};
+
+template <unsigned parseFlags, typename InputStream>
+int parse_stream(InputStream &stream, ImportSink *sink, sqlite_import_options *options) {
+    ImportHandler handler(sink, options);
+    Reader reader;
+    ParseResult parseResult = reader.Parse<parseFlags>(stream, handler);
+    int result = handler.getResult();
+    if (result == SQLITE_OK && parseResult.IsError()) {
+        set_error(options, "JSON parse error at offset %lu: %s", (unsigned long) parseResult.Offset(), GetParseError_En(parseResult.Code()));
+        result = SQLITE_ERROR;
+    } else if (result == SQLITE_OK && !handler.isDone()) {
+        set_error(options, "unexpected end of JSON");
+        result = SQLITE_ERROR;
+    }
+    return result;
+}
+
+// Parses and applies the document on the calling thread
+template <unsigned parseFlags, typename InputStream>
+int import_stream(sqlite3 *connection, InputStream &stream, sqlite_import_options *options) {
+    table_import import;
+    init_import(&import, connection, options);
+    int result = begin_import(&import);
+    if (result != SQLITE_OK) {
+        return result;
+    }
+
+    DirectSink sink(&import);
+    result = parse_stream<parseFlags>(stream, &sink, options);
+    return finish_import(&import, result);
+}
+
+enum import_event_type {
+    EVENT_BEGIN_TABLE,
+    EVENT_ROW,
+    EVENT_DELETE,
+    EVENT_FINISH_TABLE,
+    EVENT_END
+};
+
+struct import_event {
+    import_event_type type;
+    std::string table;
+    std::vector<std::string> columns;
+    bool delta;
+    row values;
+};
+
+// Events are recycled with their buffers, so a warmed up pipeline does not allocate per row
+struct event_batch {
+    std::vector<import_event> events;
+    size_t count;
+    size_t rows;
+};
+
+// A bounded queue between the parser thread and the connection's thread
+class BatchQueue {
+public:
+    BatchQueue() : cancelled(false) {
+        pthread_mutex_init(&mutex, NULL);
+        pthread_cond_init(&changed, NULL);
+        for (int i = 0; i < PIPELINE_BATCH_COUNT; i++) {
+            free.push_back(&batches[i]);
+        }
+    }
+
+    ~BatchQueue() {
+        pthread_cond_destroy(&changed);
+        pthread_mutex_destroy(&mutex);
+    }
+
+    // Returns an empty batch, blocking while all batches are in use. Returns NULL once cancelled.
+    event_batch *takeFree() {
+        pthread_mutex_lock(&mutex);
+        while (free.empty() && !cancelled) {
+            pthread_cond_wait(&changed, &mutex);
+        }
+        event_batch *batch = NULL;
+        if (!cancelled) {
+            batch = free.back();
+            free.pop_back();
+            batch->count = 0;
+            batch->rows = 0;
+        }
+        pthread_mutex_unlock(&mutex);
+        return batch;
+    }
+
+    void pushFull(event_batch *batch) {
+        pthread_mutex_lock(&mutex);
+        full.push_back(batch);
+        pthread_cond_broadcast(&changed);
+        pthread_mutex_unlock(&mutex);
+    }
+
+    event_batch *takeFull() {
+        pthread_mutex_lock(&mutex);
+        while (full.empty()) {
+            pthread_cond_wait(&changed, &mutex);
+        }
+        event_batch *batch = full.front();
+        full.pop_front();
+        pthread_mutex_unlock(&mutex);
+        return batch;
+    }
+
+    void release(event_batch *batch) {
+        pthread_mutex_lock(&mutex);
+        free.push_back(batch);
+        pthread_cond_broadcast(&changed);
+        pthread_mutex_unlock(&mutex);
+    }
+
+    // Stops the parser, e.g. because applying a batch failed
+    void cancel() {
+        pthread_mutex_lock(&mutex);
+        cancelled = true;
+        pthread_cond_broadcast(&changed);
+        pthread_mutex_unlock(&mutex);
+    }
+
+private:
+    pthread_mutex_t mutex;
+    pthread_cond_t changed;
+    event_batch batches[PIPELINE_BATCH_COUNT];
+    std::vector<event_batch *> free;
+    std::deque<event_batch *> full;
+    bool cancelled;
+};
+
+// Collects the document into batches on the parser thread
+class PipelineSink : public ImportSink {
+public:
+    PipelineSink(BatchQueue *queue) : queue(queue), batch(queue->takeFree()) {
+    }
+
+    int beginTable(const std::string &table, const std::vector<std::string> &columns, bool delta) {
+        import_event *event = add(EVENT_BEGIN_TABLE);
+        if (event == NULL) {
+            return SQLITE_INTERRUPT;
+        }
+        event->table = table;
+        event->columns = columns;
+        event->delta = delta;
+        return SQLITE_OK;
+    }
+
+    int importRow(const row &values) {
+        return addRow(EVENT_ROW, values);
+    }
+
+    int deleteRow(const row &keys) {
+        return addRow(EVENT_DELETE, keys);
+    }
+
+    int finishTable() {
+        return add(EVENT_FINISH_TABLE) != NULL ? SQLITE_OK : SQLITE_INTERRUPT;
+    }
+
+    // Hands the last batch to the connection's thread
+    void end() {
+        if (add(EVENT_END) != NULL) {
+            queue->pushFull(batch);
+            batch = NULL;
+        }
+    }
+
+private:
+    BatchQueue *queue;
+    event_batch *batch;
+
+    import_event *add(import_event_type type) {
+        if (batch == NULL) {
+            return NULL;
+        }
+        if (batch->count == batch->events.size()) {
+            batch->events.push_back(import_event());
+        }
+        import_event *event = &batch->events[batch->count++];
+        event->type = type;
+        return event;
+    }
+
+    int addRow(import_event_type type, const row &values) {
+        import_event *event = add(type);
+        if (event == NULL) {
+            return SQLITE_INTERRUPT;
+        }
+        event->values.cells = values.cells;
+        event->values.copiedText = values.copiedText;
+
+        if (++batch->rows >= PIPELINE_BATCH_ROWS) {
+            queue->pushFull(batch);
+            batch = queue->takeFree();
+        }
+        return SQLITE_OK;
+    }
+};
+
+template <unsigned parseFlags, typename InputStream>
+struct ParserJob {
+    InputStream *stream;
+    BatchQueue *queue;
+    // The parser reports its errors here, so it never writes to the caller's options concurrently
+    sqlite_import_options options;
+    int result;
+
+    static void *run(void *argument) {
+        ParserJob *job = (ParserJob *) argument;
+        PipelineSink sink(job->queue);
+        job->result = parse_stream<parseFlags>(*job->stream, &sink, &job->options);
+        sink.end();
+        return NULL;
+    }
+};
+
+// Applies batches until the end of the document, returns the first error
+int apply_batches(BatchQueue *queue, table_import *import) {
+    for (;;) {
+        event_batch *batch = queue->takeFull();
+        int result = SQLITE_OK;
+        bool end = false;
+        for (size_t i = 0; i < batch->count && result == SQLITE_OK; i++) {
+            import_event &event = batch->events[i];
+            switch (event.type) {
+                case EVENT_BEGIN_TABLE:
+                    import->delta = event.delta;
+                    result = begin_table(import, event.table, event.columns);
+                    break;
+                case EVENT_ROW:
+                    result = import_row(import, event.values);
+                    break;
+                case EVENT_DELETE:
+                    result = delete_row(import, event.values);
+                    break;
+                case EVENT_FINISH_TABLE:
+                    result = finish_table(import);
+                    break;
+                case EVENT_END:
+                    end = true;
+                    break;
+            }
+        }
+        queue->release(batch);
+
+        if (result != SQLITE_OK) {
+            queue->cancel();
+            return result;
+        }
+        if (end) {
+            return SQLITE_OK;
+        }
+    }
+}
+
+// Parses on a separate thread while the calling thread, which owns the connection, binds and steps the rows parsed so far
+template <unsigned parseFlags, typename InputStream>
+int import_stream_pipelined(sqlite3 *connection, InputStream &stream, sqlite_import_options *options) {
+    BatchQueue queue;
+    ParserJob<parseFlags, InputStream> job;
+    job.stream = &stream;
+    job.queue = &queue;
+    job.options = sqlite_import_options();
+    job.result = SQLITE_OK;
+
+    table_import import;
+    init_import(&import, connection, options);
+    int result = begin_import(&import);
+    if (result != SQLITE_OK) {
+        return result;
+    }
+
+    pthread_t parser;
+    if (pthread_create(&parser, NULL, ParserJob<parseFlags, InputStream>::run, &job) != 0) {
+        DirectSink sink(&import);
+        result = parse_stream<parseFlags>(stream, &sink, options);
+        return finish_import(&import, result);
+    }
+
+    result = apply_batches(&queue, &import);
+    pthread_join(parser, NULL);
+
+    if (result == SQLITE_OK && job.result != SQLITE_OK) {
+        result = job.result;
+        memcpy(options->error_message, job.options.error_message, sizeof(options->error_message));
+    }
+    return finish_import(&import, result);
+}
+
+int sqlite_import_json_text(sqlite3 *connection, const char *json, sqlite_import_options *options) {
+    StringStream stream(json);
+    return import_stream_pipelined<kParseDefaultFlags>(connection, stream, options);
+}
+
+int import_file(sqlite3 *connection, FILE *file, sqlite_import_options *options) {
+    std::vector<char> buffer(READ_BUFFER_SIZE);
+    FileReadStream stream(file, &buffer[0], buffer.size());
+    int result = import_stream_pipelined<kParseDefaultFlags>(connection, stream, options);
+    if (result == SQLITE_OK && ferror(file)) {
+        set_error(options, "could not read JSON file");
+        result = SQLITE_IOERR;
+    }
+    return result;
+}
+
+// A read-only mapping of a file. Its pages stay clean, so the kernel can drop pages which have been parsed and memory does not grow with the file size.
+struct file_mapping {
+    void *address;
+    size_t length;
+    const char *json;
+    size_t jsonLength;
+};
+
+// Maps the file from offset to its end. Returns false if the file cannot be mapped, e.g. because it is a pipe.
+bool map_file(int fd, off_t offset, file_mapping *mapping) {
+    struct stat status;
+    if (fstat(fd, &status) != 0 || !S_ISREG(status.st_mode) || status.st_size <= offset) {
+        return false;
+    }
+
+    off_t pageSize = sysconf(_SC_PAGESIZE);
+    off_t alignedOffset = offset - offset % pageSize;
+    size_t length = (size_t) (status.st_size - alignedOffset);
+    void *address = mmap(NULL, length, PROT_READ, MAP_PRIVATE, fd, alignedOffset);
+    if (address == MAP_FAILED) {
+        return false;
+    }
+    madvise(address, length, MADV_SEQUENTIAL);
+
+    mapping->address = address;
+    mapping->length = length;
+    mapping->json = (const char *) address + (offset - alignedOffset);
+    mapping->jsonLength = (size_t) (status.st_size - offset);
+    return true;
+}
+
+int import_mapped(sqlite3 *connection, int fd, off_t offset, sqlite_import_options *options, bool *mapped) {
+    file_mapping mapping;
+    *mapped = map_file(fd, offset, &mapping);
+    if (!*mapped) {
+        return SQLITE_OK;
+    }
+
+    // Parsing in situ would write terminators into the mapping and turn every page holding a string into a private dirty copy.
+    // Strings are copied into the batches like with buffered reads instead, which saves the read calls and the buffer.
+    MemoryStream stream(mapping.json, mapping.jsonLength);
+    int result = import_stream_pipelined<kParseDefaultFlags>(connection, stream, options);
+    munmap(mapping.address, mapping.length);
+    return result;
+}
+
+int sqlite_import_json_file(sqlite3 *connection, const char *path, sqlite_import_options *options) {
+    FILE *file = fopen(path, "rb");
+    if (file == NULL) {
+        set_error(options, "could not open %s", path);
+        return SQLITE_CANTOPEN;
+    }
+
+    bool mapped;
+    int result = import_mapped(connection, fileno(file), 0, options, &mapped);
+    if (!mapped) {
+        result = import_file(connection, file, options);
+    }
+    fclose(file);
+    return result;
+}
+
+int sqlite_import_json_fd(sqlite3 *connection, int fd, sqlite_import_options *options) {
+    // Start at the current position of the descriptor, e.g. at the start of an asset within an APK
+    off_t offset = lseek(fd, 0, SEEK_CUR);
+    if (offset >= 0) {
+        bool mapped;
+        int result = import_mapped(connection, fd, offset, options, &mapped);
+        if (mapped) {
+            return result;
+        }
+    }
+
+    // Read from a duplicate, so closing the FILE leaves the caller's descriptor open
+    int duplicate = dup(fd);
+    FILE *file = duplicate < 0 ? NULL : fdopen(duplicate, "rb");
+    if (file == NULL) {
+        if (duplicate >= 0) {
+            close(duplicate);
+        }
+        set_error(options, "could not open file descriptor");
+        return SQLITE_CANTOPEN;
+    }
+
+    int result = import_file(connection, file, options);
+    fclose(file);
+    return result;
+}
+
+int sqlite_import_json_stream(sqlite3 *connection, readFn read, void *context, sqlite_import_options *options) {
+    std::vector<char> buffer(READ_BUFFER_SIZE);
+    CallbackReadStream stream(read, context, &buffer[0], buffer.size());
+    int result = import_stream<kParseDefaultFlags>(connection, stream, options);
+    if (result == SQLITE_OK && stream.hasFailed()) {
+        set_error(options, "could not read JSON stream");
+        result = SQLITE_IOERR;
+    }
+    return result;
+}
+
+// A rapidjson output stream collecting the JSON in a buffer, which is written to a file or passed to a callback whenever it is full
+class BufferedWriteStream {
+public:
+    typedef char Ch;
+
+    BufferedWriteStream(FILE *file, writeFn write, void *context, char *buffer, size_t bufferSize) : file(file), write(write), context(context), buffer(buffer), end(buffer + bufferSize), current(buffer), failed(false) {
+    }
+
+    void Put(Ch c) {
+        if (current == end) {
+            Flush();
+        }
+        *current++ = c;
+    }
+
+    void Flush() {
+        size_t length = current - buffer;
+        current = buffer;
+        if (length == 0 || failed) {
+            return;
+        }
+
+        if (file != NULL) {
+            failed = fwrite(buffer, 1, length, file) != length;
+        } else {
+            failed = write(context, buffer, (int) length) != 0;
+        }
+    }
+
+    // Not used for writing
+    Ch Peek() const { RAPIDJSON_ASSERT(false); return 0; }
+    Ch Take() { RAPIDJSON_ASSERT(false); return 0; }
+    size_t Tell() const { RAPIDJSON_ASSERT(false); return 0; }
+    Ch *PutBegin() { RAPIDJSON_ASSERT(false); return 0; }
+    size_t PutEnd(Ch *) { RAPIDJSON_ASSERT(false); return 0; }
+
+    bool hasFailed() const {
+        return failed;
+    }
+
+private:
+    FILE *file;
+    writeFn write;
+    void *context;
+    char *buffer;
+    char *end;
+    char *current;
+    bool failed;
+};
+
+int write_column(Writer<BufferedWriteStream> &writer, sqlite3_stmt *statement, int column, std::string &hex, sqlite_export_options *options) {
+    switch (sqlite3_column_type(statement, column)) {
+        case SQLITE_INTEGER:
+            writer.Int64(sqlite3_column_int64(statement, column));
+            return SQLITE_OK;
+        case SQLITE_FLOAT: {
+            double real = sqlite3_column_double(statement, column);
+            // Infinity and NaN have no JSON representation, both yield NaN when subtracted from themselves
+            if (real - real != 0) {
+                set_error(options, "column: %s contains a number that cannot be written as JSON", sqlite3_column_name(statement, column));
+                return SQLITE_MISMATCH;
+            }
+            writer.Double(real);
+            return SQLITE_OK;
+        }
+        case SQLITE_TEXT: {
+            // The length is only valid after the text has been fetched
+            const char *text = (const char *) sqlite3_column_text(statement, column);
+            writer.String(text, (SizeType) sqlite3_column_bytes(statement, column));
+            return SQLITE_OK;
+        }
+        case SQLITE_BLOB: {
+            static const char digits[] = "0123456789abcdef";
+            const unsigned char *bytes = (const unsigned char *) sqlite3_column_blob(statement, column);
+            size_t length = (size_t) sqlite3_column_bytes(statement, column);
+            hex.resize(length * 2);
+            for (size_t i = 0; i < length; i++) {
+                hex[i * 2] = digits[bytes[i] >> 4];
+                hex[i * 2 + 1] = digits[bytes[i] & 0x0f];
+            }
+            writer.String(hex.data(), (SizeType) hex.size());
+            return SQLITE_OK;
+        }
+        default:
+            writer.Null();
+            return SQLITE_OK;
+    }
+}
+
+int export_statement(sqlite3_stmt *statement, BufferedWriteStream &stream, sqlite_export_options *options) {
+    options->error_message[0] = '\0';
+    int columnCount = sqlite3_column_count(statement);
+    const char *table = columnCount > 0 ? sqlite3_column_table_name(statement, 0) : NULL;
+    if (table == NULL) {
+        set_error(options, "the first result column must be a column of a table");
+        return SQLITE_ERROR;
+    }
+
+    Writer<BufferedWriteStream> writer(stream);
+    writer.StartObject();
+    writer.Key("current");
+    writer.StartArray();
+    writer.StartObject();
+    writer.Key("table");
+    writer.String(table);
+    writer.Key("columns");
+    writer.StartArray();
+    for (int i = 0; i < columnCount; i++) {
+        writer.String(sqlite3_column_name(statement, i));
+    }
+    writer.EndArray();
+    writer.Key("values");
+    writer.StartArray();
+
+    int result;
+    std::string hex;
+    while (!stream.hasFailed() && (result = sqlite3_step(statement)) == SQLITE_ROW) {
+        writer.StartArray();
+        for (int i = 0; i < columnCount; i++) {
+            result = write_column(writer, statement, i, hex, options);
+            if (result != SQLITE_OK) {
+                return result;
+            }
+        }
+        writer.EndArray();
+    }
+    if (!stream.hasFailed() && result != SQLITE_DONE) {
+        print_error(sqlite3_db_handle(statement), table, result);
+        return result;
+    }
+
+    writer.EndArray();
+    writer.EndObject();
+    writer.EndArray();
+    writer.EndObject();
+    stream.Flush();
+    if (stream.hasFailed()) {
+        set_error(options, "could not write JSON");
+        return SQLITE_IOERR;
+    }
+    return SQLITE_OK;
+}
 
-int sqlite_import_json(sqlite3 *connection, const char *json, primaryKeysFn getPrimaryKeysFn) {
-    Document document;
-    document.Parse(json);
-    const Value &current = document["current"];
+int sqlite_export_json_file(sqlite3_stmt *statement, const char *path, sqlite_export_options *options) {
+    FILE *file = fopen(path, "wb");
+    if (file == NULL) {
+        set_error(options, "could not create %s", path);
+        return SQLITE_CANTOPEN;
+    }
 
-    assert(current.IsArray());
-    for (SizeType i = 0; i < current.Size(); i++) {
-        const Value &tableObj = current[i];
-        assert(tableObj.IsObject());
-        int tableResult = process_table(connection, tableObj, getPrimaryKeysFn);
-        if (tableResult != SQLITE_OK) {
-            return tableResult;
-        }
+    std::vector<char> buffer(WRITE_BUFFER_SIZE);
+    BufferedWriteStream stream(file, NULL, NULL, &buffer[0], buffer.size());
+    int result = export_statement(statement, stream, options);
+    if (fclose(file) != 0 && result == SQLITE_OK) {
+        set_error(options, "could not write %s", path);
+        result = SQLITE_IOERR;
+    }
+    // Do not leave incomplete JSON behind
+    if (result != SQLITE_OK) {
+        unlink(path);
     }
+    return result;
+}
 
-    return SQLITE_OK;
+int sqlite_export_json_stream(sqlite3_stmt *statement, writeFn write, void *context, sqlite_export_options *options) {
+    std::vector<char> buffer(WRITE_BUFFER_SIZE);
+    BufferedWriteStream stream(NULL, write, context, &buffer[0], buffer.size());
+    return export_statement(statement, stream, options);
 }
 
-int process_table(sqlite3 *connection, const Value &tableObj, primaryKeysFn getPrimaryKeysFn) {
-    const char *table = tableObj["table"].GetString();
-    __android_log_print(ANDROID_LOG_VERBOSE, "JSON_NDK", "processing table: %s\n", table);
+int begin_table(table_import *import, const std::string &table, const std::vector<std::string> &columns) {
+    sqlite3 *connection = import->connection;
+    import->table = table;
+    const char *tableName = import->table.c_str();
+    import->columns = columns;
+    import->updateStatement = NULL;
+    import->insertStatement = NULL;
+    import->insertTempKeysStatement = NULL;
+    import->deleteStatement = NULL;
+    import->primaryKeys.clear();
+    import->primaryKeyIndexes.clear();
+    import->progress = sqlite_import_progress();
+    import->progress.table = tableName;
+    import->nextProgress = import->options->progress_interval > 0 ? import->options->progress_interval : DEFAULT_PROGRESS_INTERVAL;
+    import->tableIndex++;
+    import->rowIndex = 0;
+    import->purge = -1;
 
-    const Value &columns = tableObj["columns"];
-    assert(columns.IsArray());
+    const table_schema *schema;
+    int schemaResult = get_table_schema(import, table, &schema);
+    if (schemaResult != SQLITE_OK) {
+        return schemaResult;
+    }
 
-    const Value &values = tableObj["values"];
-    assert(values.IsArray());
+    if (import->options->primary_keys != NULL) {
+        // Copy the keys right away, the callback's memory is owned by Java
+        int callbackLength = 0;
+        const char **primaryKeys = import->options->primary_keys(tableName, &callbackLength);
+        for (int i = 0; i < callbackLength; i++) {
+            import->primaryKeys.push_back(primaryKeys[i]);
+        }
+    } else {
+        import->primaryKeys = schema->primaryKeys;
+    }
 
-    int pkLength;
-    const char **primaryKeys = getPrimaryKeysFn(table, &pkLength);
+    int pkLength = (int) import->primaryKeys.size();
+    if (pkLength == 0 && !import->delta) {
+        set_error(import->options, "table: %s has no primary key, so rows missing in the JSON cannot be purged", tableName);
+        return SQLITE_ERROR;
+    }
+    for (int i = 0; i < pkLength; i++) {
+        import->primaryKeyIndexes.push_back(index_of(import->primaryKeys[i], columns));
+    }
 
-    if (pkLength > 1) {
-        int tempTableResult = create_temp_table(connection, table, primaryKeys, pkLength);
-        if (tempTableResult != SQLITE_DONE) {
-            print_error(connection, table, tempTableResult);
-            return tempTableResult;
-        }
+    import->affinities.clear();
+    for (int i = 0; i < columns.size(); i++) {
+        int index = index_of(columns[i], schema->columns);
+        import->affinities.push_back(index >= 0 ? schema->affinities[index] : AFFINITY_UNKNOWN);
     }
+    import->active = 1;
 
-    sqlite3_stmt *updateStatement;
-    int updateStatementResult = create_update_statement(connection, table, columns, primaryKeys, pkLength, &updateStatement);
+    // The imported keys are collected in a temporary table, so rows missing from the JSON can be purged with an anti-join.
+    // A table listed more than once adds to the keys of its first occurrence.
+    if (pkLength > 0 && !import->delta) {
+        for (size_t i = 0; i < import->purges.size() && import->purge < 0; i++) {
+            if (import->purges[i].table == table) {
+                import->purge = (int) i;
+            }
+        }
+        if (import->purge < 0) {
+            // A temporary table may have survived the rollback of the caller's transaction
+            drop_temp_table_if_necessary(connection, tableName, pkLength);
+            int tempTableResult = create_temp_table(connection, tableName, import->primaryKeys);
+            if (tempTableResult != SQLITE_DONE) {
+                print_error(connection, tableName, tempTableResult);
+                import->active = 0;
+                return tempTableResult;
+            }
+            pending_purge purge;
+            purge.table = table;
+            purge.primaryKeys = import->primaryKeys;
+            purge.progress = sqlite_import_progress();
+            import->purge = (int) import->purges.size();
+            import->purges.push_back(purge);
+        }
+    }
 
-    if (updateStatementResult != SQLITE_OK) {
-        print_error(connection, table, updateStatementResult);
-        drop_temp_table_if_necessary(connection, table, pkLength);
-        return updateStatementResult;
+    int mergeStrategy = import->options->merge_strategy;
+    import->upsert = 0;
+    import->tryUpdate = 0;
+    if (mergeStrategy == SQLITE_IMPORT_MERGE_UPSERT && (pkLength == 0 || sqlite3_libversion_number() < 3024000)) {
+        set_error(import->options, "table: %s cannot be upserted, this requires primary keys and SQLite 3.24.0", tableName);
+        return SQLITE_ERROR;
+    }
+    if (columns.empty()) {
+        // A delta that only deletes rows
+    } else if (mergeStrategy != SQLITE_IMPORT_MERGE_UPDATE_INSERT && pkLength > 0 && sqlite3_libversion_number() >= 3024000) {
+        // Writes every row with a single statement, but requires a PRIMARY KEY or UNIQUE constraint matching the keys
+        int upsertStatementResult = create_upsert_statement(connection, tableName, columns, import->primaryKeys, &import->insertStatement);
+        if (upsertStatementResult == SQLITE_OK) {
+            import->upsert = 1;
+        } else if (mergeStrategy == SQLITE_IMPORT_MERGE_UPSERT) {
+            print_error(connection, tableName, upsertStatementResult);
+            return upsertStatementResult;
+        }
     }
 
-    int tryUpdate = pkLength != columns.Size() && updateStatement != NULL;
+    if (!import->upsert && !columns.empty()) {
+        if (pkLength == 0) {
+            set_error(import->options, "table: %s has no primary key, so upserted rows cannot be matched to existing rows", tableName);
+            return SQLITE_ERROR;
+        }
+
+        int updateStatementResult = create_update_statement(connection, tableName, columns, import->primaryKeys, &import->updateStatement);
+        if (updateStatementResult != SQLITE_OK) {
+            print_error(connection, tableName, updateStatementResult);
+            return updateStatementResult;
+        }
+
+        import->tryUpdate = pkLength != columns.size() && import->updateStatement != NULL;
 
-    sqlite3_stmt *insertStatement;
-    int insertStatementResult = create_insert_statement(connection, table, columns, 1, &insertStatement);
-    if (insertStatementResult != SQLITE_OK) {
-        print_error(connection, table, insertStatementResult);
-        drop_temp_table_if_necessary(connection, table, pkLength);
-        finish_statements(updateStatement, NULL, NULL);
-        return insertStatementResult;
+        int insertStatementResult = create_insert_statement(connection, tableName, columns, 1, &import->insertStatement);
+        if (insertStatementResult != SQLITE_OK) {
+            print_error(connection, tableName, insertStatementResult);
+            return insertStatementResult;
+        }
     }
 
-    sqlite3_stmt *insertTempKeysStatement;
-    if (pkLength > 1) {
-        int insertTempKeysStatementResult = create_insert_statement_for_temp_table(connection, table, primaryKeys, pkLength, &insertTempKeysStatement);
+    if (pkLength > 0 && !import->delta) {
+        int insertTempKeysStatementResult = create_insert_statement_for_temp_table(connection, tableName, import->primaryKeys, &import->insertTempKeysStatement);
         if (insertTempKeysStatementResult != SQLITE_OK) {
-            print_error(connection, table, insertTempKeysStatementResult);
-            drop_temp_table_if_necessary(connection, table, pkLength);
-            finish_statements(updateStatement, NULL, NULL);
+            print_error(connection, tableName, insertTempKeysStatementResult);
             return insertTempKeysStatementResult;
         }
-    } else {
-        insertTempKeysStatement = NULL;
     }
 
-    std::vector<int> primaryKeyIndexes = std::vector<int>();
-    for (int i = 0; i < pkLength; i++) {
-        const char *key = primaryKeys[i];
-        primaryKeyIndexes.push_back(index_of(key, columns));
+    if (pkLength > 0 && import->delta) {
+        int deleteStatementResult = create_delete_statement(connection, tableName, import->primaryKeys, &import->deleteStatement);
+        if (deleteStatementResult != SQLITE_OK) {
+            print_error(connection, tableName, deleteStatementResult);
+            return deleteStatementResult;
+        }
     }
 
-    std::vector<int64_t> usedPrimaryKeys = std::vector<int64_t>();
-    for (int i = 0; i < values.Size(); i++) {
-        const Value &valuesArray = values[i];
-        assert(valuesArray.IsArray());
+    // Resolve the named parameters once, so rows are bound positionally
+    resolve_parameters(import->updateStatement, columns, import->updateParameters);
+    resolve_parameters(import->insertStatement, columns, import->insertParameters);
+    resolve_parameters(import->insertTempKeysStatement, import->primaryKeys, import->insertTempKeysParameters);
 
-        if (pkLength == 1) {
-            usedPrimaryKeys.push_back(valuesArray[primaryKeyIndexes.at(0)].GetInt64());
-        } else {
-            assert(insertTempKeysStatement != NULL);
-            sqlite3_reset(insertTempKeysStatement);
-            sqlite3_clear_bindings(insertTempKeysStatement);
-            for (int keyIndex = 0; keyIndex < pkLength; keyIndex++) {
-                const char *key = primaryKeys[keyIndex];
-                int index = primaryKeyIndexes.at(keyIndex);
-                const int64_t pkValue = valuesArray[index].GetInt64();
-                std::string parameter = ":";
-                parameter += key;
-
-                int paramIndex = sqlite3_bind_parameter_index(insertTempKeysStatement, parameter.c_str());
-                //__android_log_print(ANDROID_LOG_VERBOSE, "JSON_NDK", "temp keys of table: %s bind: %lld to: %s at index: %d\n", table, (long long)pkValue, parameter.c_str(), paramIndex);
-                int bindResult = sqlite3_bind_int64(insertTempKeysStatement, paramIndex, pkValue);
-                if (bindResult != SQLITE_OK) {
-                    print_error(connection, table, bindResult);
-                    drop_temp_table_if_necessary(connection, table, pkLength);
-                    finish_statements(updateStatement, insertStatement, insertTempKeysStatement);
-                    return bindResult;
-                }
-            }
-            int stepResult = sqlite3_step(insertTempKeysStatement);
-            if (stepResult != SQLITE_DONE) {
-                print_error(connection, table, stepResult);
-                drop_temp_table_if_necessary(connection, table, pkLength);
-                finish_statements(updateStatement, insertStatement, insertTempKeysStatement);
-                return stepResult;
-            }
+    return SQLITE_OK;
+}
+
+int import_row(table_import *import, const row &values) {
+    sqlite3 *connection = import->connection;
+    const char *table = import->table.c_str();
+    size_t pkLength = import->primaryKeys.size();
+
+    for (size_t keyIndex = 0; keyIndex < pkLength; keyIndex++) {
+        int index = import->primaryKeyIndexes.at(keyIndex);
+        if (index < 0 || index >= values.cells.size() || values.cells[index].type != CELL_INTEGER) {
+            set_error(import->options, "table: %s missing integer primary key: %s", table, import->primaryKeys[keyIndex].c_str());
+            return SQLITE_MISMATCH;
         }
+    }
 
-        if (tryUpdate) {
-            sqlite3_reset(updateStatement);
-            sqlite3_clear_bindings(updateStatement);
-            int bindResult = bind_statement(updateStatement, columns, valuesArray);
+    if (pkLength > 0 && !import->delta) {
+        sqlite3_stmt *insertTempKeysStatement = import->insertTempKeysStatement;
+        sqlite3_reset(insertTempKeysStatement);
+        sqlite3_clear_bindings(insertTempKeysStatement);
+        for (size_t keyIndex = 0; keyIndex < pkLength; keyIndex++) {
+            int bindResult = sqlite3_bind_int64(insertTempKeysStatement, import->insertTempKeysParameters[keyIndex], values.cells[import->primaryKeyIndexes[keyIndex]].integer);
             if (bindResult != SQLITE_OK) {
                 print_error(connection, table, bindResult);
-                drop_temp_table_if_necessary(connection, table, pkLength);
-                finish_statements(updateStatement, insertStatement, insertTempKeysStatement);
                 return bindResult;
             }
-
-            int updateResult = sqlite3_step(updateStatement);
-            if (updateResult != SQLITE_DONE) {
-                print_error(connection, table, updateResult);
-                drop_temp_table_if_necessary(connection, table, pkLength);
-                finish_statements(updateStatement, insertStatement, insertTempKeysStatement);
-                return updateResult;
-            }
         }
+        int stepResult = sqlite3_step(insertTempKeysStatement);
+        if (stepResult != SQLITE_DONE) {
+            print_error(connection, table, stepResult);
+            return stepResult;
+        }
+    }
+
+    // Rows committed by a previous run only need their keys, so they are not purged
+    if (is_committed(import)) {
+        return next_row(import, false, 0);
+    }
 
-        sqlite3_reset(insertStatement);
-        sqlite3_clear_bindings(insertStatement);
-        int bindResult = bind_statement(insertStatement, columns, valuesArray);
+    int updated = 0;
+    if (import->tryUpdate) {
+        sqlite3_stmt *updateStatement = import->updateStatement;
+        sqlite3_reset(updateStatement);
+        sqlite3_clear_bindings(updateStatement);
+        int bindResult = bind_statement(updateStatement, import->updateParameters, import->affinities, values);
         if (bindResult != SQLITE_OK) {
             print_error(connection, table, bindResult);
-            drop_temp_table_if_necessary(connection, table, pkLength);
-            finish_statements(updateStatement, insertStatement, insertTempKeysStatement);
             return bindResult;
         }
 
-        int insertResult = sqlite3_step(insertStatement);
-        if (insertResult != SQLITE_DONE) {
-            const char *message = print_error(connection, table, insertResult);
-            if (strcmp("FOREIGN KEY constraint failed", message) != 0) {
-                drop_temp_table_if_necessary(connection, table, pkLength);
-                finish_statements(updateStatement, insertStatement, insertTempKeysStatement);
-                return insertResult;
-            }
+        int updateResult = sqlite3_step(updateStatement);
+        if (updateResult != SQLITE_DONE) {
+            print_error(connection, table, updateResult);
+            return updateResult;
         }
+        updated = sqlite3_changes(connection) > 0;
     }
 
-    int deleteResult = delete_from_table(connection, table, primaryKeys, pkLength, usedPrimaryKeys);
-    int result = SQLITE_OK;
+    sqlite3_stmt *insertStatement = import->insertStatement;
+    sqlite3_reset(insertStatement);
+    sqlite3_clear_bindings(insertStatement);
+    int bindResult = bind_statement(insertStatement, import->insertParameters, import->affinities, values);
+    if (bindResult != SQLITE_OK) {
+        print_error(connection, table, bindResult);
+        return bindResult;
+    }
+
+    // Foreign keys are deferred, so rows never fail because of the order of the tables
+    int insertResult = sqlite3_step(insertStatement);
+    sqlite_import_progress *progress = &import->progress;
+    if (insertResult != SQLITE_DONE) {
+        print_error(connection, table, insertResult);
+        return insertResult;
+    } else if (import->upsert) {
+        progress->rows_upserted++;
+    } else if (sqlite3_changes(connection) > 0) {
+        progress->rows_inserted++;
+    } else if (updated) {
+        progress->rows_updated++;
+    } else {
+        progress->rows_skipped++;
+    }
+
+    sqlite3_int64 bytes = 0;
+    for (size_t i = 0; i < values.cells.size(); i++) {
+        bytes += values.cells[i].type == CELL_TEXT ? (sqlite3_int64) values.cells[i].length : 8;
+    }
+    return next_row(import, true, bytes);
+}
+
+int delete_row(table_import *import, const row &keys) {
+    sqlite3 *connection = import->connection;
+    const char *table = import->table.c_str();
+    size_t pkLength = import->primaryKeys.size();
+    if (pkLength == 0 || keys.cells.size() != pkLength) {
+        set_error(import->options, "table: %s deletes must list one value per primary key", table);
+        return SQLITE_MISMATCH;
+    }
+
+    if (is_committed(import)) {
+        return next_row(import, false, 0);
+    }
+
+    sqlite3_stmt *deleteStatement = import->deleteStatement;
+    sqlite3_reset(deleteStatement);
+    for (size_t keyIndex = 0; keyIndex < pkLength; keyIndex++) {
+        if (keys.cells[keyIndex].type != CELL_INTEGER) {
+            set_error(import->options, "table: %s deleted key %s is not an integer", table, import->primaryKeys[keyIndex].c_str());
+            return SQLITE_MISMATCH;
+        }
+        sqlite3_bind_int64(deleteStatement, (int) keyIndex + 1, keys.cells[keyIndex].integer);
+    }
+
+    int deleteResult = sqlite3_step(deleteStatement);
     if (deleteResult != SQLITE_DONE) {
         print_error(connection, table, deleteResult);
-        result = deleteResult;
+        return deleteResult;
+    }
+
+    import->progress.rows_deleted += sqlite3_changes(connection);
+    return next_row(import, true, (sqlite3_int64) pkLength * 8);
+}
+
+int finish_table(table_import *import) {
+    int result = SQLITE_OK;
+    if (import->purge >= 0) {
+        // Reported as finished after the purge at the end of the import
+        add_progress(&import->purges[import->purge].progress, import->progress);
+    } else {
+        result = report_progress(import, 1);
+    }
+
+    abort_table(import);
+    return result;
+}
+
+// Releases the statements of the current table
+void abort_table(table_import *import) {
+    if (!import->active) {
+        return;
+    }
+
+    finish_statements(import->updateStatement, import->insertStatement, import->insertTempKeysStatement);
+    sqlite3_finalize(import->deleteStatement);
+    import->updateStatement = NULL;
+    import->insertStatement = NULL;
+    import->insertTempKeysStatement = NULL;
+    import->deleteStatement = NULL;
+    import->active = 0;
+}
+
+void init_import(table_import *import, sqlite3 *connection, sqlite_import_options *options) {
+    *import = table_import();
+    import->connection = connection;
+    import->options = options;
+    import->startTime = current_time_ms();
+    import->cache = options->cache != NULL ? options->cache : &import->localCache;
+    import->tableIndex = -1;
+}
+
+// Starts the import's own transaction, unless it runs in the caller's
+int begin_import(table_import *import) {
+    sqlite_import_options *options = import->options;
+    import->chunked = options->commit_rows > 0 || options->commit_bytes > 0;
+    if (!sqlite3_get_autocommit(import->connection)) {
+        if (import->chunked) {
+            set_error(options, "chunked imports commit on their own and must not run within a transaction");
+            return SQLITE_MISUSE;
+        }
+        // Foreign keys are checked when the caller commits
+        int deferResult = execute_statement(import->connection, "PRAGMA defer_foreign_keys = ON");
+        return deferResult == SQLITE_DONE ? SQLITE_OK : deferResult;
+    }
+
+    if (import->chunked && options->resume_id != NULL) {
+        int markerResult = load_marker(import);
+        if (markerResult != SQLITE_OK) {
+            return markerResult;
+        }
     }
+    return begin_transaction(import);
+}
 
-    drop_temp_table_if_necessary(connection, table, pkLength);
-    finish_statements(updateStatement, insertStatement, insertTempKeysStatement);
+// Purges the tables and commits the import's own transaction if the import succeeded, otherwise rolls it back. Returns the result of the import.
+int finish_import(table_import *import, int result) {
+    sqlite3 *connection = import->connection;
+    abort_table(import);
+    if (result == SQLITE_OK) {
+        result = purge_tables(import);
+    }
+    if (result == SQLITE_OK && import->chunked && import->options->resume_id != NULL) {
+        sqlite3_stmt *statement;
+        result = sqlite3_prepare_v2(connection, "DELETE FROM json_import_marker WHERE resume_id = ?", -1, &statement, NULL);
+        if (result == SQLITE_OK) {
+            sqlite3_bind_text(statement, 1, import->options->resume_id, -1, SQLITE_STATIC);
+            result = sqlite3_step(statement) == SQLITE_DONE ? SQLITE_OK : sqlite3_errcode(connection);
+            sqlite3_finalize(statement);
+        }
+    }
+    if (result == SQLITE_OK && import->ownsTransaction) {
+        // Deferred foreign key violations fail here
+        int commitResult = execute_statement(connection, "COMMIT");
+        result = commitResult == SQLITE_DONE ? SQLITE_OK : commitResult;
+    }
+    if (result != SQLITE_OK && import->options->error_message[0] == '\0') {
+        // Keep the message of the failing call, the rollback and cleanup below replace it
+        set_error(import->options, "%s", sqlite3_errmsg(connection));
+    }
+    if (result != SQLITE_OK && import->ownsTransaction) {
+        // Only the current chunk is lost, the marker points to the end of the previous one
+        execute_statement(connection, "ROLLBACK");
+    }
+    import->ownsTransaction = 0;
 
+    // Dropped after the rollback, so the temporary tables are gone for good
+    for (size_t i = 0; i < import->purges.size(); i++) {
+        drop_temp_table_if_necessary(connection, import->purges[i].table.c_str(), (int) import->purges[i].primaryKeys.size());
+    }
+    import->purges.clear();
     return result;
 }
 
+// Begins a transaction of the import, in which foreign keys are only checked when it is committed.
+// This way rows may reference rows of tables further down the document.
+int begin_transaction(table_import *import) {
+    int beginResult = execute_statement(import->connection, "BEGIN IMMEDIATE");
+    if (beginResult != SQLITE_DONE) {
+        return beginResult;
+    }
+    import->ownsTransaction = 1;
+
+    // Reset by every commit
+    int deferResult = execute_statement(import->connection, "PRAGMA defer_foreign_keys = ON");
+    return deferResult == SQLITE_DONE ? SQLITE_OK : deferResult;
+}
+
+// Commits the rows written so far and starts the next chunk
+int commit_chunk(table_import *import) {
+    sqlite3 *connection = import->connection;
+    sqlite_import_options *options = import->options;
+    if (options->resume_id != NULL) {
+        int markerResult = save_marker(import);
+        if (markerResult != SQLITE_OK) {
+            return markerResult;
+        }
+    }
+
+    int commitResult = execute_statement(connection, "COMMIT");
+    if (commitResult != SQLITE_DONE) {
+        print_error(connection, import->table.c_str(), commitResult);
+        return commitResult;
+    }
+    import->ownsTransaction = 0;
+
+    if (options->checkpoint != SQLITE_IMPORT_CHECKPOINT_NONE) {
+        // Busy readers only keep the WAL from shrinking, which is not worth failing the import for
+        int mode = options->checkpoint == SQLITE_IMPORT_CHECKPOINT_TRUNCATE ? SQLITE_CHECKPOINT_TRUNCATE : SQLITE_CHECKPOINT_PASSIVE;
+        sqlite3_wal_checkpoint_v2(connection, NULL, mode, NULL, NULL);
+    }
+
+    int beginResult = begin_transaction(import);
+    if (beginResult != SQLITE_OK) {
+        print_error(connection, import->table.c_str(), beginResult);
+        return beginResult;
+    }
+    import->chunkRows = 0;
+    import->chunkBytes = 0;
+    return SQLITE_OK;
+}
+
+// Deletes the rows missing in the JSON. Tables referencing others are purged first, so no row is deleted while rows that are purged as well still refer to it.
+int purge_tables(table_import *import) {
+    sqlite3 *connection = import->connection;
+    std::vector<size_t> order;
+    order_purges(import, order);
+    for (size_t i = 0; i < order.size(); i++) {
+        pending_purge &purge = import->purges[order[i]];
+        const char *table = purge.table.c_str();
+        int deleteResult = delete_from_table(connection, table, purge.primaryKeys);
+        if (deleteResult != SQLITE_DONE) {
+            print_error(connection, table, deleteResult);
+            return deleteResult;
+        }
+
+        import->progress = purge.progress;
+        import->progress.table = table;
+        import->progress.rows_deleted += sqlite3_changes(connection);
+        int progressResult = report_progress(import, 1);
+        if (progressResult != SQLITE_OK) {
+            return progressResult;
+        }
+    }
+    return SQLITE_OK;
+}
+
+// Orders the purged tables by their foreign keys (PRAGMA foreign_key_list): each table follows all tables referencing it, otherwise the document order is kept
+void order_purges(table_import *import, std::vector<size_t> &order) {
+    size_t count = import->purges.size();
+    std::vector<std::vector<size_t> > children(count);
+    for (size_t i = 0; i < count; i++) {
+        std::string sql = "PRAGMA foreign_key_list(\"" + import->purges[i].table + "\")";
+        sqlite3_stmt *statement;
+        if (sqlite3_prepare_v2(import->connection, sql.c_str(), -1, &statement, NULL) != SQLITE_OK) {
+            continue;
+        }
+        while (sqlite3_step(statement) == SQLITE_ROW) {
+            const char *parent = (const char *) sqlite3_column_text(statement, 2);
+            for (size_t j = 0; j < count; j++) {
+                if (j != i && sqlite3_stricmp(parent, import->purges[j].table.c_str()) == 0 && std::find(children[j].begin(), children[j].end(), i) == children[j].end()) {
+                    children[j].push_back(i);
+                }
+            }
+        }
+        sqlite3_finalize(statement);
+    }
+
+    std::vector<bool> visited(count, false);
+    for (size_t i = 0; i < count; i++) {
+        visit_purge(i, children, visited, order);
+    }
+}
+
+// Appends a table after the tables referencing it. Cycles are broken where they are entered first.
+void visit_purge(size_t index, const std::vector<std::vector<size_t> > &children, std::vector<bool> &visited, std::vector<size_t> &order) {
+    if (visited[index]) {
+        return;
+    }
+    visited[index] = true;
+    for (size_t i = 0; i < children[index].size(); i++) {
+        visit_purge(children[index][i], children, visited, order);
+    }
+    order.push_back(index);
+}
+
+void add_progress(sqlite_import_progress *total, const sqlite_import_progress &progress) {
+    total->rows_processed += progress.rows_processed;
+    total->rows_inserted += progress.rows_inserted;
+    total->rows_updated += progress.rows_updated;
+    total->rows_upserted += progress.rows_upserted;
+    total->rows_deleted += progress.rows_deleted;
+    total->rows_skipped += progress.rows_skipped;
+}
+
+bool is_committed(const table_import *import) {
+    return import->tableIndex < import->resumeTable || (import->tableIndex == import->resumeTable && import->rowIndex < import->resumeRow);
+}
+
+// Counts a row read from the document, then commits the chunk or reports progress if due
+int next_row(table_import *import, bool written, sqlite3_int64 bytes) {
+    import->rowIndex++;
+    import->progress.rows_processed++;
+
+    if (import->chunked && written) {
+        sqlite_import_options *options = import->options;
+        import->chunkRows++;
+        import->chunkBytes += bytes;
+        if (((options->commit_rows > 0 && import->chunkRows >= options->commit_rows) || (options->commit_bytes > 0 && import->chunkBytes >= options->commit_bytes))
+                && !has_deferred_violations(import->connection)) {
+            int commitResult = commit_chunk(import);
+            if (commitResult != SQLITE_OK) {
+                return commitResult;
+            }
+        }
+    }
+    return import->progress.rows_processed < import->nextProgress ? SQLITE_OK : report_progress(import, 0);
+}
+
+// Rows referencing rows further down the document violate their deferred foreign keys until those are written.
+// The chunk is extended until they are resolved, as committing it would fail.
+int has_deferred_violations(sqlite3 *connection) {
+    int current = 0;
+    int highwater = 0;
+    return sqlite3_db_status(connection, SQLITE_DBSTATUS_DEFERRED_FKS, &current, &highwater, 0) == SQLITE_OK && current > 0;
+}
+
+int load_marker(table_import *import) {
+    sqlite3 *connection = import->connection;
+    int createResult = execute_statement(connection, "CREATE TABLE IF NOT EXISTS json_import_marker (resume_id TEXT NOT NULL PRIMARY KEY, table_index INTEGER NOT NULL, row_index INTEGER NOT NULL)");
+    if (createResult != SQLITE_DONE) {
+        return createResult;
+    }
+
+    sqlite3_stmt *statement;
+    int result = sqlite3_prepare_v2(connection, "SELECT table_index, row_index FROM json_import_marker WHERE resume_id = ?", -1, &statement, NULL);
+    if (result != SQLITE_OK) {
+        return result;
+    }
+    sqlite3_bind_text(statement, 1, import->options->resume_id, -1, SQLITE_STATIC);
+    int stepResult = sqlite3_step(statement);
+    if (stepResult == SQLITE_ROW) {
+        import->resumeTable = sqlite3_column_int(statement, 0);
+        import->resumeRow = sqlite3_column_int64(statement, 1);
+    }
+    sqlite3_finalize(statement);
+    return stepResult == SQLITE_ROW || stepResult == SQLITE_DONE ? SQLITE_OK : stepResult;
+}
+
+// Stores the position of the current chunk in the chunk's transaction
+int save_marker(table_import *import) {
+    sqlite3_stmt *statement;
+    int result = sqlite3_prepare_v2(import->connection, "INSERT OR REPLACE INTO json_import_marker (resume_id, table_index, row_index) VALUES (?, ?, ?)", -1, &statement, NULL);
+    if (result != SQLITE_OK) {
+        return result;
+    }
+    sqlite3_bind_text(statement, 1, import->options->resume_id, -1, SQLITE_STATIC);
+    sqlite3_bind_int(statement, 2, import->tableIndex);
+    sqlite3_bind_int64(statement, 3, import->rowIndex);
+    int stepResult = sqlite3_step(statement);
+    sqlite3_finalize(statement);
+    return stepResult == SQLITE_DONE ? SQLITE_OK : stepResult;
+}
+
+sqlite_import_cache *sqlite_import_cache_create() {
+    sqlite_import_cache *cache = new sqlite_import_cache();
+    cache->schemaVersion = -1;
+    return cache;
+}
+
+void sqlite_import_cache_destroy(sqlite_import_cache *cache) {
+    delete cache;
+}
+
+int get_table_schema(table_import *import, const std::string &table, const table_schema **schema) {
+    sqlite3 *connection = import->connection;
+    sqlite_import_cache *cache = import->cache;
+    if (!import->cacheChecked) {
+        // Imports do not change the schema, so it is enough to check its version once per import
+        sqlite3_stmt *statement;
+        int result = sqlite3_prepare_v2(connection, "PRAGMA schema_version", -1, &statement, NULL);
+        if (result != SQLITE_OK) {
+            return result;
+        }
+        int schemaVersion = sqlite3_step(statement) == SQLITE_ROW ? sqlite3_column_int(statement, 0) : -1;
+        sqlite3_finalize(statement);
+        if (schemaVersion != cache->schemaVersion) {
+            cache->tables.clear();
+            cache->schemaVersion = schemaVersion;
+        }
+        import->cacheChecked = 1;
+    }
+
+    std::map<std::string, table_schema>::iterator cached = cache->tables.find(table);
+    if (cached == cache->tables.end()) {
+        table_schema loaded;
+        int result = load_table_schema(connection, table, &loaded);
+        if (result != SQLITE_OK) {
+            return result;
+        }
+        if (loaded.columns.empty()) {
+            set_error(import->options, "no such table: %s", table.c_str());
+            return SQLITE_ERROR;
+        }
+        cached = cache->tables.insert(std::make_pair(table, loaded)).first;
+    }
+    *schema = &cached->second;
+    return SQLITE_OK;
+}
+
+int load_table_schema(sqlite3 *connection, const std::string &table, table_schema *schema) {
+    std::string sql = "PRAGMA table_info(\"" + table + "\")";
+    sqlite3_stmt *statement;
+    int result = sqlite3_prepare_v2(connection, sql.c_str(), -1, &statement, NULL);
+    if (result != SQLITE_OK) {
+        return result;
+    }
+
+    // The keys ordered by their position in the primary key
+    std::vector<std::pair<int, std::string> > primaryKeys;
+    while ((result = sqlite3_step(statement)) == SQLITE_ROW) {
+        std::string name = (const char *) sqlite3_column_text(statement, 1);
+        const char *declaredType = (const char *) sqlite3_column_text(statement, 2);
+        int pkIndex = sqlite3_column_int(statement, 5);
+        schema->columns.push_back(name);
+        schema->affinities.push_back(get_affinity(declaredType));
+        if (pkIndex > 0) {
+            primaryKeys.push_back(std::make_pair(pkIndex, name));
+        }
+    }
+    sqlite3_finalize(statement);
+    if (result != SQLITE_DONE) {
+        return result;
+    }
+
+    std::sort(primaryKeys.begin(), primaryKeys.end());
+    for (int i = 0; i < primaryKeys.size(); i++) {
+        schema->primaryKeys.push_back(primaryKeys[i].second);
+    }
+    return SQLITE_OK;
+}
+
+column_affinity get_affinity(const char *declaredType) {
+    if (declaredType == NULL || *declaredType == '\0') {
+        return AFFINITY_BLOB;
+    }
+
+    std::string type = declaredType;
+    std::transform(type.begin(), type.end(), type.begin(), ::toupper);
+    if (type.find("INT") != std::string::npos) {
+        return AFFINITY_INTEGER;
+    }
+    if (type.find("CHAR") != std::string::npos || type.find("CLOB") != std::string::npos || type.find("TEXT") != std::string::npos) {
+        return AFFINITY_TEXT;
+    }
+    if (type.find("BLOB") != std::string::npos) {
+        return AFFINITY_BLOB;
+    }
+    if (type.find("REAL") != std::string::npos || type.find("FLOA") != std::string::npos || type.find("DOUB") != std::string::npos) {
+        return AFFINITY_REAL;
+    }
+    return AFFINITY_NUMERIC;
+}
+
+int report_progress(table_import *import, int tableFinished) {
+    sqlite_import_options *options = import->options;
+    if (options->progress == NULL) {
+        return SQLITE_OK;
+    }
+
+    sqlite_import_progress *progress = &import->progress;
+    import->nextProgress = progress->rows_processed + (options->progress_interval > 0 ? options->progress_interval : DEFAULT_PROGRESS_INTERVAL);
+    progress->elapsed_ms = current_time_ms() - import->startTime;
+    progress->table_finished = tableFinished;
+    if (options->progress(options->progress_context, progress) != 0) {
+        set_error(options, "import cancelled");
+        return SQLITE_INTERRUPT;
+    }
+    return SQLITE_OK;
+}
+
+sqlite3_int64 current_time_ms() {
+    struct timespec now;
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return (sqlite3_int64) now.tv_sec * 1000 + now.tv_nsec / 1000000;
+}
+
 const char * print_error(sqlite3 *connection, const char *table, int code) {
     const char * message = sqlite3_errmsg(connection);
     __android_log_print(ANDROID_LOG_WARN, "JSON_NDK", "table: %s code: %d error: %s\n", table, code, message);
     return message;
 }
 
+void set_error(sqlite_import_options *options, const char *format, ...) {
+    va_list arguments;
+    va_start(arguments, format);
+    print_message(options->error_message, sizeof(options->error_message), format, arguments);
+    va_end(arguments);
+}
+
+void set_error(sqlite_export_options *options, const char *format, ...) {
+    va_list arguments;
+    va_start(arguments, format);
+    print_message(options->error_message, sizeof(options->error_message), format, arguments);
+    va_end(arguments);
+}
+
+void print_message(char *message, size_t size, const char *format, va_list arguments) {
+    vsnprintf(message, size, format, arguments);
+    __android_log_print(ANDROID_LOG_WARN, "JSON_NDK", "%s\n", message);
+}
+
 void drop_temp_table_if_necessary(sqlite3 *connection, const char *table, int primaryKeysLength) {
-    if (primaryKeysLength > 1) {
-        std::string sql = "DROP TABLE temp_";
+    if (primaryKeysLength > 0) {
+        std::string sql = "DROP TABLE IF EXISTS temp_";
         sql += table;
         execute_statement(connection, sql);
     }
 }
 
-template <typename T>
-std::string to_string(T value)
-{
-    std::ostringstream os ;
-    os << value ;
-    return os.str() ;
-}
-
-int delete_from_table(sqlite3 *connection, const char *table, const char **keys, int length, std::vector<int64_t> usedPrimaryKeys) {
+int delete_from_table(sqlite3 *connection, const char *table, const std::vector<std::string> &keys) {
     std::string sql = "DELETE FROM \"";
     sql += table;
     sql += "\" ";
 
-    if (length == 1) {
-        if (usedPrimaryKeys.size() > 0) {
-            sql += " WHERE \"";
-            sql += keys[0];
-            sql += "\" NOT IN (";
-            for (int i = 0; i < usedPrimaryKeys.size(); i++) {
-                int64_t value = usedPrimaryKeys.at(i);
-                sql += to_string(value);
-                if (i < usedPrimaryKeys.size() - 1) {
-                    sql += ", ";
-                }
-            }
-            sql += ")";
-        }
+    if (keys.size() == 1) {
+        // The temporary table's key is its rowid, so every lookup is a single B-tree search
+        sql += " WHERE \"";
+        sql += keys[0];
+        sql += "\" NOT IN (SELECT \"";
+        sql += keys[0];
+        sql += "\" FROM temp_";
+        sql += table;
+        sql += ")";
     } else {
         sql += " WHERE NOT EXISTS (SELECT 1 FROM temp_";
         sql += table;
         sql += " a WHERE ";
-        for (int i = 0; i < length; i++) {
-            const char *key = keys[i];
+        for (int i = 0; i < keys.size(); i++) {
+            const char *key = keys[i].c_str();
             sql += "\"";
             sql += table;
             sql += "\".";
             sql += key;
             sql += " = a.";
             sql += key;
-            if (i < length - 1) {
+            if (i < keys.size() - 1) {
                 sql += " AND ";
             }
         }
@@ -283,28 +1986,31 @@ void finish_statements(sqlite3_stmt *updateStatement, sqlite3_stmt *insertStatem
     }
 }
 
-int bind_statement(sqlite3_stmt *statement, const Value &columns, const Value &values) {
-    for (int i = 0; i < values.Size(); i++) {
-        std::string parameter = ":";
-        parameter += columns[i].GetString();
-
-        const Value &value = values[i];
-        int index = sqlite3_bind_parameter_index(statement, parameter.c_str());
-        int bindResult;
-        if (value.IsNull()) {
-            bindResult = sqlite3_bind_null(statement, index);
-        } else if (value.IsBool()) {
-            bindResult = sqlite3_bind_int(statement, index, value.GetBool());
-        } else if (value.IsInt64()) {
-            //__android_log_print(ANDROID_LOG_VERBOSE, "JSON_NDK", "int64 parameter: %s value: %lld\ndouble value: %f\ncasted value: %lld\n", parameter.c_str(), (long long)value.GetInt64(), value.GetDouble(), (long long)((uint64_t)value.GetDouble()));
-            bindResult = sqlite3_bind_int64(statement, index, value.GetInt64());
-        } else if (value.IsNumber()) {
-            //__android_log_print(ANDROID_LOG_VERBOSE, "JSON_NDK", "number parameter: %s value: %lld\ndouble value: %f\ncasted value: %lld\n", parameter.c_str(), (long long)value.GetInt64(), value.GetDouble(), (long long)((uint64_t)value.GetDouble()));
-            bindResult = sqlite3_bind_int64(statement, index, (uint64_t)value.GetDouble());
-        } else {
-            bindResult = sqlite3_bind_text(statement, index, value.GetString(), -1, SQLITE_TRANSIENT);
+int bind_cell(sqlite3_stmt *statement, int index, const row &values, const cell &value, column_affinity affinity) {
+    switch (value.type) {
+        case CELL_NULL:
+            return sqlite3_bind_null(statement, index);
+        case CELL_INTEGER:
+            return sqlite3_bind_int64(statement, index, value.integer);
+        case CELL_DOUBLE:
+            if (affinity == AFFINITY_REAL || affinity == AFFINITY_NUMERIC || affinity == AFFINITY_BLOB) {
+                return sqlite3_bind_double(statement, index, value.real);
+            }
+            // Non-integer numbers have always been imported as integers
+            return sqlite3_bind_int64(statement, index, (uint64_t) value.real);
+        default:
+            // The row outlives the step. Its buffer is only reused once the statements have been reset and their bindings cleared.
+            return sqlite3_bind_text(statement, index, cell_text(values, value), (int) value.length, SQLITE_STATIC);
+    }
+}
+
+int bind_statement(sqlite3_stmt *statement, const std::vector<int> &parameters, const std::vector<column_affinity> &affinities, const row &values) {
+    for (int i = 0; i < values.cells.size() && i < parameters.size(); i++) {
+        if (parameters[i] == 0) {
+            continue;
         }
 
+        int bindResult = bind_cell(statement, parameters[i], values, values.cells[i], i < affinities.size() ? affinities[i] : AFFINITY_UNKNOWN);
         if (bindResult != SQLITE_OK) {
             return bindResult;
         }
@@ -312,23 +2018,35 @@ int bind_statement(sqlite3_stmt *statement, const Value &columns, const Value &v
     return SQLITE_OK;
 }
 
-int create_temp_table(sqlite3 *connection, const char *table, const char **keys, int length) {
+void resolve_parameters(sqlite3_stmt *statement, const std::vector<std::string> &names, std::vector<int> &parameters) {
+    parameters.clear();
+    if (statement == NULL) {
+        return;
+    }
+
+    std::string parameter;
+    for (int i = 0; i < names.size(); i++) {
+        parameter = ":";
+        parameter += names[i];
+        parameters.push_back(sqlite3_bind_parameter_index(statement, parameter.c_str()));
+    }
+}
+
+int create_temp_table(sqlite3 *connection, const char *table, const std::vector<std::string> &keys) {
     std::string sql = "CREATE TEMPORARY TABLE temp_";
     sql += table;
     sql += " (";
-    for (int i = 0; i < length; i++) {
-        const char *key = keys[i];
+    for (int i = 0; i < keys.size(); i++) {
         sql += "\"";
-        sql += key;
+        sql += keys[i];
         sql += "\" INTEGER NOT NULL, ";
     }
     sql += "PRIMARY KEY (";
-    for (int i = 0; i < length; i++) {
-        const char *key = keys[i];
+    for (int i = 0; i < keys.size(); i++) {
         sql += "\"";
-        sql += key;
+        sql += keys[i];
         sql += "\"";
-        if (i < length - 1) {
+        if (i < keys.size() - 1) {
             sql += ", ";
         }
     }
@@ -337,25 +2055,24 @@ int create_temp_table(sqlite3 *connection, const char *table, const char **keys,
     return execute_statement(connection, sql);
 }
 
-int create_insert_statement_for_temp_table(sqlite3 *connection, const char *table, const char **keys, int length, sqlite3_stmt **statement) {
-    std::string sql = "INSERT INTO temp_";
+int create_insert_statement_for_temp_table(sqlite3 *connection, const char *table, const std::vector<std::string> &keys, sqlite3_stmt **statement) {
+    // Keys listed twice in the JSON must not fail the import
+    std::string sql = "INSERT OR IGNORE INTO temp_";
     sql += table;
     sql += " (";
-    for (int i = 0; i < length; i++) {
-        const char *key = keys[i];
+    for (int i = 0; i < keys.size(); i++) {
         sql += "\"";
-        sql += key;
+        sql += keys[i];
         sql += "\"";
-        if (i < length - 1) {
+        if (i < keys.size() - 1) {
             sql += ", ";
         }
     }
     sql += ") VALUES (";
-    for (int i = 0; i < length; i++) {
-        const char *key = keys[i];
+    for (int i = 0; i < keys.size(); i++) {
         sql += ":";
-        sql += key;
-        if (i < length - 1) {
+        sql += keys[i];
+        if (i < keys.size() - 1) {
             sql += ", ";
         }
     }
@@ -364,32 +2081,32 @@ int create_insert_statement_for_temp_table(sqlite3 *connection, const char *tabl
     return sqlite3_prepare_v2(connection, sql.c_str(), -1, statement, NULL);
 }
 
-int create_update_statement(sqlite3 *connection, const char *table, const Value &columns, const char **primaryKeys, int pkLength, sqlite3_stmt **statement) {
-    if (pkLength == columns.Size()) {
+int create_update_statement(sqlite3 *connection, const char *table, const std::vector<std::string> &columns, const std::vector<std::string> &primaryKeys, sqlite3_stmt **statement) {
+    if (primaryKeys.size() == columns.size()) {
         *statement = NULL;
         return SQLITE_OK;
     }
 
     std::string sql = std::string("UPDATE \"") + table + "\" SET ";
-    for (int i = 0; i < columns.Size(); i++) {
-        const char *column = columns[i].GetString();
-        if (contains(primaryKeys, pkLength, column)) {
+    bool first = true;
+    for (int i = 0; i < columns.size(); i++) {
+        const std::string &column = columns[i];
+        if (contains(primaryKeys, column)) {
             continue;
         }
 
-        std::string columnStr = std::string(column);
-        sql += "\"" + columnStr + "\" = :" + columnStr;
-        if (i < columns.Size() - 1) {
+        if (!first) {
             sql += ", ";
         }
+        sql += "\"" + column + "\" = :" + column;
+        first = false;
     }
 
     sql += " WHERE ";
-    for (int i = 0; i < pkLength; i++) {
-        const char *pkColumn = primaryKeys[i];
-        std::string pkColumnStr = std::string(pkColumn);
-        sql += "\"" + pkColumnStr + "\" = :" + pkColumnStr;
-        if (i < pkLength - 1) {
+    for (int i = 0; i < primaryKeys.size(); i++) {
+        const std::string &pkColumn = primaryKeys[i];
+        sql += "\"" + pkColumn + "\" = :" + pkColumn;
+        if (i < primaryKeys.size() - 1) {
             sql += " AND ";
         }
     }
@@ -397,27 +2114,23 @@ int create_update_statement(sqlite3 *connection, const char *table, const Value
     return sqlite3_prepare_v2(connection, sql.c_str(), -1, statement, NULL);
 }
 
-int create_insert_statement(sqlite3 *connection, const char *table, const Value &columns, int ignoreExisting, sqlite3_stmt **statement) {
+int create_insert_statement(sqlite3 *connection, const char *table, const std::vector<std::string> &columns, int ignoreExisting, sqlite3_stmt **statement) {
     std::string sql = "INSERT ";
     if (ignoreExisting) {
         sql += "OR IGNORE ";
     }
     sql += "INTO \"" + std::string(table) + "\" (";
-    for (int i = 0; i < columns.Size(); i++) {
-        const char *column = columns[i].GetString();
-        std::string columnStr = std::string(column);
-        sql += "\"" + columnStr + "\"";
-        if (i < columns.Size() - 1) {
+    for (int i = 0; i < columns.size(); i++) {
+        sql += "\"" + columns[i] + "\"";
+        if (i < columns.size() - 1) {
             sql += ", ";
         }
     }
 
     sql += ") VALUES ( ";
-    for (int i = 0; i < columns.Size(); i++) {
-        const char *column = columns[i].GetString();
-        std::string columnStr = std::string(column);
-        sql += ":" + columnStr;
-        if (i < columns.Size() - 1) {
+    for (int i = 0; i < columns.size(); i++) {
+        sql += ":" + columns[i];
+        if (i < columns.size() - 1) {
             sql += ", ";
         }
     }
@@ -426,22 +2139,71 @@ int create_insert_statement(sqlite3 *connection, const char *table, const Value
     return sqlite3_prepare_v2(connection, sql.c_str(), -1, statement, NULL);
 }
 
-int index_of(const char *string, const Value &columns) {
-    for (int i = 0; i < columns.Size(); i++) {
-        const char *column = columns[i].GetString();
-        if (strcmp(column, string) == 0) {
-            return i;
+int create_upsert_statement(sqlite3 *connection, const char *table, const std::vector<std::string> &columns, const std::vector<std::string> &primaryKeys, sqlite3_stmt **statement) {
+    std::string sql = "INSERT INTO \"" + std::string(table) + "\" (";
+    for (int i = 0; i < columns.size(); i++) {
+        sql += "\"" + columns[i] + "\"";
+        if (i < columns.size() - 1) {
+            sql += ", ";
         }
     }
-    return -1;
+
+    sql += ") VALUES ( ";
+    for (int i = 0; i < columns.size(); i++) {
+        sql += ":" + columns[i];
+        if (i < columns.size() - 1) {
+            sql += ", ";
+        }
+    }
+
+    sql += ") ON CONFLICT (";
+    for (int i = 0; i < primaryKeys.size(); i++) {
+        sql += "\"" + primaryKeys[i] + "\"";
+        if (i < primaryKeys.size() - 1) {
+            sql += ", ";
+        }
+    }
+    sql += ") DO ";
+
+    bool first = true;
+    for (int i = 0; i < columns.size(); i++) {
+        const std::string &column = columns[i];
+        if (contains(primaryKeys, column)) {
+            continue;
+        }
+
+        sql += first ? "UPDATE SET " : ", ";
+        sql += "\"" + column + "\" = excluded.\"" + column + "\"";
+        first = false;
+    }
+    if (first) {
+        sql += "NOTHING";
+    }
+
+    return sqlite3_prepare_v2(connection, sql.c_str(), -1, statement, NULL);
+}
+
+int create_delete_statement(sqlite3 *connection, const char *table, const std::vector<std::string> &primaryKeys, sqlite3_stmt **statement) {
+    std::string sql = "DELETE FROM \"" + std::string(table) + "\" WHERE ";
+    for (int i = 0; i < primaryKeys.size(); i++) {
+        sql += "\"" + primaryKeys[i] + "\" = ?";
+        if (i < primaryKeys.size() - 1) {
+            sql += " AND ";
+        }
+    }
+
+    return sqlite3_prepare_v2(connection, sql.c_str(), -1, statement, NULL);
 }
 
-int contains(const char **array, int length, const char *string) {
-    for (int i = 0; i < length; i++) {
-        const char* str = array[i];
-        if (strcmp(str, string) == 0) {
-            return 1;
+int index_of(const std::string &string, const std::vector<std::string> &columns) {
+    for (int i = 0; i < columns.size(); i++) {
+        if (columns[i] == string) {
+            return i;
         }
     }
-    return 0;
+    return -1;
+}
+
+int contains(const std::vector<std::string> &array, const std::string &string) {
+    return index_of(string, array) >= 0;
 }
@@ -9,6 +9,87 @@
 
 typedef const char ** (*primaryKeysFn)(const char *, int *);
 
+// Fills buffer with up to capacity bytes. Returns the number of bytes read, 0 at the end of the stream or -1 on errors.
+// context is the pointer passed to the import, so a single function can serve several imports at once.
+typedef int (*readFn)(void *context, char *buffer, int capacity);
+
+// Writes size bytes from buffer. Returns 0 on success or -1 on errors. context is the pointer passed to the export.
+typedef int (*writeFn)(void *context, const char *buffer, int size);
+
+// Caches the primary keys and column affinities of tables until the schema changes. Must only be used with one connection.
+typedef struct sqlite_import_cache sqlite_import_cache;
+
+// The statistics of the table being imported
+typedef struct sqlite_import_progress {
+    const char *table;
+    sqlite3_int64 rows_processed; // Rows and deleted keys read from the JSON
+    sqlite3_int64 rows_inserted;
+    sqlite3_int64 rows_updated;
+    sqlite3_int64 rows_upserted; // Rows written by an upsert, which cannot tell inserts from updates
+    sqlite3_int64 rows_deleted; // Including the rows purged because they are missing in the JSON
+    sqlite3_int64 rows_skipped; // Rows that were neither inserted nor updated, e.g. because INSERT OR IGNORE hit another constraint
+    sqlite3_int64 elapsed_ms; // Since the import started
+    int table_finished;
+} sqlite_import_progress;
+
+// Called every progress_interval rows and after each table with the progress_context of the options. Returns non-zero to cancel the import.
+typedef int (*progressFn)(void *context, const sqlite_import_progress *progress);
+
+// How rows are merged into existing tables
+#define SQLITE_IMPORT_MERGE_UPDATE_INSERT 0 // UPDATE followed by INSERT OR IGNORE for every row, rows violating other constraints are skipped
+// The upsert strategies abort the import on NOT NULL, CHECK or other UNIQUE violations instead of skipping the row
+#define SQLITE_IMPORT_MERGE_UPSERT 1 // INSERT ... ON CONFLICT DO UPDATE, fails if unsupported
+#define SQLITE_IMPORT_MERGE_AUTOMATIC 2 // Upsert if SQLite supports it (3.24.0+) and the primary key has a matching constraint, otherwise update then insert
+
+// WAL checkpoints run after each commit of a chunked import
+#define SQLITE_IMPORT_CHECKPOINT_NONE 0
+#define SQLITE_IMPORT_CHECKPOINT_PASSIVE 1 // Copies as many frames as possible without waiting for readers
+#define SQLITE_IMPORT_CHECKPOINT_TRUNCATE 2 // Waits for readers (through the busy handler) and truncates the WAL file
+
+typedef struct sqlite_import_options {
+    primaryKeysFn primary_keys; // Optional, the declared primary keys of a table are used if not set
+    sqlite_import_cache *cache; // Optional, the schema is read for each import if not set
+    int merge_strategy;
+    progressFn progress; // Optional
+    void *progress_context; // Passed to progress
+    int progress_interval; // Defaults to 1000 rows
+    // Chunked imports run in their own transactions, which are committed every commit_rows rows or commit_bytes bytes of values, whichever comes first.
+    // If both are 0, the import runs in the caller's transaction.
+    int commit_rows;
+    sqlite3_int64 commit_bytes;
+    int checkpoint;
+    // Optional, identifies a chunked import of a certain document. Running it again after it failed continues after its last commit.
+    const char *resume_id;
+    // Set if an import fails for other reasons than a failing SQLite call, e.g. a JSON syntax error
+    char error_message[256];
+} sqlite_import_options;
+
+typedef struct sqlite_export_options {
+    // Set if an export fails for other reasons than a failing SQLite call, e.g. a write error
+    char error_message[256];
+} sqlite_export_options;
+
+sqlite_import_cache *sqlite_import_cache_create();
+
+void sqlite_import_cache_destroy(sqlite_import_cache *cache);
+
 int sqlite_import_json(sqlite3 *connection, const char *json, primaryKeysFn getPrimaryKeysFn);
 
+int sqlite_import_json_text(sqlite3 *connection, const char *json, sqlite_import_options *options);
+
+// Streaming imports: rows are bound and stepped while the JSON is parsed, so memory does not grow with the size of the payload.
+// The "table" and "columns" members of a table object must precede its "values" (or "upserts"). "deletes" may appear anywhere,
+// keys read before "columns" are buffered until the table starts.
+int sqlite_import_json_file(sqlite3 *connection, const char *path, sqlite_import_options *options);
+
+int sqlite_import_json_fd(sqlite3 *connection, int fd, sqlite_import_options *options);
+
+int sqlite_import_json_stream(sqlite3 *connection, readFn read, void *context, sqlite_import_options *options);
+
+// Exports the rows of a prepared and bound statement in the format read by the imports: {"current": [{"table": ..., "columns": [...], "values": [...]}]}.
+// The table is the one the first result column belongs to. Rows are written while the statement is stepped, the statement is neither reset nor finalized.
+int sqlite_export_json_file(sqlite3_stmt *statement, const char *path, sqlite_export_options *options);
+
+int sqlite_export_json_stream(sqlite3_stmt *statement, writeFn write, void *context, sqlite_export_options *options);
+
 #endif //SWISSCAMPUS_LERNAPP_SQLITE_RAPIDJSON_H
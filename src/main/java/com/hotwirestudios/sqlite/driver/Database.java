@@ -68,6 +68,16 @@ public class Database<TReadOperations, TReadWriteOperations extends TReadOperati
         }, true);
     }
 
+    /**
+     * Sets a prepackaged database, which is copied into place before the database is opened the first time, see {@link DatabaseAccess#setSeed(DatabaseSeed)}.
+     * Must be called before any operations or migrations are performed.
+     *
+     * @param seed The seed (null to create an empty database)
+     */
+    public void setSeed(@Nullable DatabaseSeed seed) {
+        databaseAccess.setSeed(seed);
+    }
+
     /**
      * Performs all necessary migrations of the provided list.
      * The migrations will be executed in the provided order.
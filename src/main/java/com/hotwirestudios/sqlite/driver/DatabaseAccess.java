@@ -2,10 +2,13 @@ package com.hotwirestudios.sqlite.driver;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.Log;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import bolts.Task;
 
@@ -15,6 +18,11 @@ import bolts.Task;
 public class DatabaseAccess {
     private final ExecutorService executorService;
     private final NativeSQLiteConnection connection;
+    private final String path;
+    private final SQLCipherKey key;
+    private final SQLCipherSettings cipherSettings;
+    private DatabaseSeed seed;
+    private ScheduledExecutorService samplingService;
 
     /**
      * Instantiates a new DatabaseAccess, storing or reading data to/from the provided path.
@@ -22,9 +30,111 @@ public class DatabaseAccess {
      * @param path The full qualified database path
      */
     public DatabaseAccess(@NonNull String path, @Nullable String key) {
+        this(path, key == null ? null : SQLCipherKey.fromPassphrase(key), SQLCipherSettings.DEFAULT);
+    }
+
+    /**
+     * Instantiates a new DatabaseAccess to an encrypted database, storing or reading data to/from the provided path.
+     *
+     * @param path           The full qualified database path
+     * @param key            The key (null to skip encryption)
+     * @param cipherSettings The encryption settings
+     */
+    public DatabaseAccess(@NonNull String path, @Nullable SQLCipherKey key, @NonNull SQLCipherSettings cipherSettings) {
         super();
         executorService = Executors.newSingleThreadExecutor();
-        connection = new NativeSQLiteConnection(path, key, SQLiteNative.SQLITE_OPEN_CREATE_IF_NECESSARY | SQLiteNative.SQLITE_OPEN_READWRITE);
+        this.path = path;
+        this.key = key;
+        this.cipherSettings = cipherSettings;
+        connection = new NativeSQLiteConnection(path, key, cipherSettings, SQLiteNative.SQLITE_OPEN_CREATE_IF_NECESSARY | SQLiteNative.SQLITE_OPEN_READWRITE);
+    }
+
+    /**
+     * Sets a prepackaged database, which is copied to the path before the database is opened the first time, if no database exists there.
+     * Must be called before the first context is queued.
+     * A plaintext seed for an encrypted database (or vice versa) is not just copied, but converted row by row with {@link DatabaseConverter} on the first launch.
+     *
+     * @param seed The seed (null to create an empty database)
+     */
+    public void setSeed(@Nullable DatabaseSeed seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Starts profiling the statements of the connection, see {@link NativeSQLiteConnection#startProfiling(int)}. Unlike queued contexts, this takes effect immediately.
+     *
+     * @param capacity The maximum number of distinct statements
+     * @throws SQLiteException
+     */
+    public void startProfiling(int capacity) throws SQLiteException {
+        connection.startProfiling(capacity);
+    }
+
+    /**
+     * Stops profiling and discards the statistics.
+     */
+    public void stopProfiling() {
+        connection.stopProfiling();
+    }
+
+    /**
+     * Takes a snapshot of the statements executed while profiling, see {@link NativeSQLiteConnection#getProfile(boolean)}.
+     *
+     * @param reset If true, the statistics are reset
+     * @return The snapshot or null, if profiling has not been started
+     */
+    @Nullable
+    public SQLiteProfile getProfile(boolean reset) {
+        return connection.getProfile(reset);
+    }
+
+    /**
+     * Reads the cache and memory usage of the connection, see {@link NativeSQLiteConnection#getStatus(boolean)}. Unlike queued contexts, this takes effect immediately.
+     *
+     * @param reset If true, the counters and high-water marks are reset
+     * @return The snapshot or null, if the connection has not been opened yet
+     * @throws SQLiteException
+     */
+    @Nullable
+    public SQLiteStatus getStatus(boolean reset) throws SQLiteException {
+        return connection.getStatus(reset);
+    }
+
+    /**
+     * Passes a snapshot of the cache and memory usage to the sampler in a fixed interval, e.g. to feed a metrics pipeline.
+     * The counters are reset with every sample, so hits, misses and writes count the activity within the interval. Samples are skipped while the connection is not open.
+     * The sampler is called on a background thread, not on the thread executing the contexts.
+     *
+     * @param intervalMillis The interval in milliseconds
+     * @param sampler        The sampler
+     */
+    public synchronized void startStatusSampling(long intervalMillis, @NonNull final StatusSampler sampler) {
+        stopStatusSampling();
+        samplingService = Executors.newSingleThreadScheduledExecutor();
+        samplingService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SQLiteStatus status = connection.getStatus(true);
+                    if (status != null) {
+                        sampler.onSample(status);
+                    }
+                } catch (Exception exception) {
+                    // An exception would cancel all further samples
+                    Log.w("SQLITE", "Could not sample the status", exception);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops passing snapshots to the sampler.
+     */
+    public synchronized void stopStatusSampling() {
+        if (samplingService != null) {
+            samplingService.shutdown();
+            samplingService = null;
+        }
     }
 
     /**
@@ -40,6 +150,10 @@ public class DatabaseAccess {
             @Override
             public T call() throws Exception {
                 if (!connection.isOpen()) {
+                    if (seed != null) {
+                        seed.install(path, key, cipherSettings);
+                        seed = null;
+                    }
                     connection.open();
                 }
                 connection.executeStatement("PRAGMA foreign_keys = 1");
@@ -62,6 +176,38 @@ public class DatabaseAccess {
         }, executorService);
     }
 
+    /**
+     * Closes the connection once all queued contexts have been executed and stops the executor thread. Profiling is stopped as well.
+     * The DatabaseAccess cannot be used afterwards.
+     *
+     * @return The task representing the asynchronous operation
+     */
+    public Task<Void> close() {
+        stopStatusSampling();
+        Task<Void> task = Task.call(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                connection.close();
+                connection.stopProfiling();
+                return null;
+            }
+        }, executorService);
+        executorService.shutdown();
+        return task;
+    }
+
+    /**
+     * Receives snapshots of the cache and memory usage, see {@link #startStatusSampling(long, StatusSampler)}.
+     */
+    public interface StatusSampler {
+        /**
+         * Called for every sample.
+         *
+         * @param status The snapshot
+         */
+        void onSample(@NonNull SQLiteStatus status);
+    }
+
     /**
      * Provides an operation to run with a certain connection.
      *
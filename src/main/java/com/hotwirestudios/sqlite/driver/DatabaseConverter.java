@@ -0,0 +1,427 @@
+package com.hotwirestudios.sqlite.driver;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies a database into a new file with a different key, e.g. to encrypt a plaintext database, decrypt an encrypted one or rotate keys.
+ * <p>
+ * Tables are copied in batches of rows, each batch in its own transaction, so neither memory nor journal size grow with the size of the database.
+ * The progress is stored in the target database, so an interrupted conversion continues where it stopped when {@link #convert(ProgressListener)} is called again with the same target.
+ * Indexes, triggers and views are created after all data has been copied.
+ * Tables are copied in schema order, so foreign keys are disabled while copying and checked with foreign_key_check before the conversion completes.
+ * <p>
+ * The source connection must be open and must not be within a transaction. The source must not change between resumed calls of {@link #convert(ProgressListener)},
+ * as batches which have been copied are never read again. Once the conversion has completed, close the source connection and replace the source file with the target file.
+ */
+public class DatabaseConverter {
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+
+    private static final String TARGET = "conversion_target";
+    private static final String PROGRESS_TABLE = TARGET + ".conversion_progress";
+
+    private final NativeSQLiteConnection source;
+    private final String targetPath;
+    private final SQLCipherKey targetKey;
+    private final SQLCipherSettings targetSettings;
+    private final int batchSize;
+
+    /**
+     * Instantiates a new converter.
+     *
+     * @param source         The open source connection
+     * @param targetPath     The full qualified path of the converted database
+     * @param targetKey      The key of the converted database (null for a plaintext database)
+     * @param targetSettings The encryption settings of the converted database
+     * @param batchSize      The maximum number of rows copied per transaction
+     */
+    public DatabaseConverter(@NonNull NativeSQLiteConnection source, @NonNull String targetPath, @Nullable SQLCipherKey targetKey, @NonNull SQLCipherSettings targetSettings, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.source = source;
+        this.targetPath = targetPath;
+        this.targetKey = targetKey;
+        this.targetSettings = targetSettings;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Copies all data, which has not been copied yet, into the target database.
+     *
+     * @param listener Optional listener, which is notified after each batch and may stop the conversion
+     * @return true, if the conversion has completed, false if it was stopped by the listener
+     * @throws SQLiteException
+     */
+    public boolean convert(@Nullable ProgressListener listener) throws SQLiteException {
+        // Children may be copied before their parents and rows may reference later rows. Foreign keys cannot be changed within a transaction.
+        boolean foreignKeys = queryLong("SELECT foreign_keys AS value FROM pragma_foreign_keys", null) != 0;
+        if (foreignKeys) {
+            source.executeStatement("PRAGMA foreign_keys = 0");
+        }
+        try {
+            attachTarget();
+            try {
+                List<SchemaObject> schema = readSchema();
+                createTables(schema);
+                for (SchemaObject object : schema) {
+                    if (object.isCopied() && !copyTable(object.name, listener)) {
+                        return false;
+                    }
+                }
+                finishConversion(schema);
+                return true;
+            } finally {
+                source.executeStatement("DETACH DATABASE " + TARGET);
+            }
+        } finally {
+            if (foreignKeys) {
+                source.executeStatement("PRAGMA foreign_keys = 1");
+            }
+        }
+    }
+
+    private void attachTarget() throws SQLiteException {
+        SQLiteStatement statement = source.createStatement("ATTACH DATABASE :path AS " + TARGET + " KEY :key");
+        try {
+            statement.bindValue(targetPath).to(":path");
+            // An empty key attaches a plaintext database
+            statement.bindValue(targetKey == null ? "" : targetKey.getKeyText()).to(":key");
+            statement.step();
+        } finally {
+            statement.finish();
+        }
+
+        if (targetKey != null) {
+            if (targetSettings.getPageSize() != null) {
+                source.executeStatement("PRAGMA " + TARGET + ".cipher_page_size = " + targetSettings.getPageSize());
+            }
+            if (targetSettings.getKdfIterations() != null && !targetKey.isRaw()) {
+                source.executeStatement("PRAGMA " + TARGET + ".kdf_iter = " + targetSettings.getKdfIterations());
+            }
+        }
+        source.executeStatement("CREATE TABLE IF NOT EXISTS " + PROGRESS_TABLE + " (" +
+                "name TEXT NOT NULL PRIMARY KEY," +
+                "last_rowid INTEGER," +
+                "completed INTEGER NOT NULL DEFAULT 0" +
+                ")");
+    }
+
+    private List<SchemaObject> readSchema() throws SQLiteException {
+        SQLiteStatement statement = source.createStatement("SELECT type, name, sql FROM main.sqlite_master WHERE sql IS NOT NULL AND name NOT LIKE 'sqlite_%' ORDER BY rowid");
+        try {
+            final List<SchemaObject> objects = statement.readList(new SQLiteStatement.RowValueCallback<SchemaObject>() {
+                @Override
+                public SchemaObject readRow(SQLiteRow row) throws SQLiteException {
+                    return new SchemaObject(row.getText("type"), row.getText("name"), row.getText("sql"));
+                }
+            });
+
+            // Shadow tables are filled by their virtual table
+            List<String> virtualTables = new ArrayList<>();
+            for (SchemaObject object : objects) {
+                if (object.isVirtualTable()) {
+                    virtualTables.add(object.name + "_");
+                }
+            }
+            for (SchemaObject object : objects) {
+                for (String prefix : virtualTables) {
+                    if (object.isTable() && object.name.startsWith(prefix)) {
+                        object.shadowTable = true;
+                    }
+                }
+            }
+            return objects;
+        } finally {
+            statement.finish();
+        }
+    }
+
+    private void createTables(List<SchemaObject> schema) throws SQLiteException {
+        for (SchemaObject object : schema) {
+            if (object.isTable() && !object.shadowTable) {
+                source.executeStatement(object.getTargetSql());
+            }
+        }
+    }
+
+    private boolean copyTable(String table, @Nullable ProgressListener listener) throws SQLiteException {
+        Progress progress = readProgress(table);
+        if (progress.completed) {
+            return true;
+        }
+
+        String quotedTable = quote(table);
+        long totalRows = queryLong("SELECT count(*) AS value FROM main." + quotedTable, null);
+        long copiedRows = progress.lastRowId == null ? 0 : queryLong("SELECT count(*) AS value FROM main." + quotedTable + " WHERE rowid <= :rowid", progress.lastRowId);
+        String columns = getColumnList(table);
+
+        if (!hasRowId(table)) {
+            // WITHOUT ROWID tables cannot be split by rowid and are copied in a single transaction
+            source.beginTransaction();
+            try {
+                source.executeStatement("DELETE FROM " + TARGET + "." + quotedTable);
+                source.executeStatement("INSERT INTO " + TARGET + "." + quotedTable + " (" + columns + ") SELECT " + columns + " FROM main." + quotedTable);
+                saveProgress(table, null, true);
+                source.commitTransaction();
+            } catch (SQLiteException exception) {
+                source.rollbackTransaction();
+                throw exception;
+            }
+            return listener == null || listener.onProgress(table, totalRows, totalRows);
+        }
+
+        String insertSql = "INSERT INTO " + TARGET + "." + quotedTable + " (rowid, " + columns + ") SELECT rowid, " + columns + " FROM main." + quotedTable + " WHERE rowid > :from AND rowid <= :to";
+        String batchEndSql = "SELECT max(rowid) AS value FROM (SELECT rowid FROM main." + quotedTable + " WHERE rowid > :rowid ORDER BY rowid LIMIT " + batchSize + ")";
+        long lastRowId = progress.lastRowId == null ? Long.MIN_VALUE : progress.lastRowId;
+        while (true) {
+            Long batchEnd = queryNullableLong(batchEndSql, lastRowId);
+            source.beginTransaction();
+            try {
+                if (batchEnd != null) {
+                    SQLiteStatement statement = source.createStatement(insertSql);
+                    try {
+                        statement.bindValue(lastRowId).to(":from");
+                        statement.bindValue(batchEnd).to(":to");
+                        statement.step();
+                    } finally {
+                        statement.finish();
+                    }
+                }
+                saveProgress(table, batchEnd == null ? lastRowId : batchEnd, batchEnd == null);
+                source.commitTransaction();
+            } catch (SQLiteException exception) {
+                source.rollbackTransaction();
+                throw exception;
+            }
+
+            if (batchEnd == null) {
+                return true;
+            }
+
+            copiedRows = Math.min(totalRows, copiedRows + batchSize);
+            lastRowId = batchEnd;
+            if (listener != null && !listener.onProgress(table, copiedRows, totalRows)) {
+                return false;
+            }
+        }
+    }
+
+    private void finishConversion(List<SchemaObject> schema) throws SQLiteException {
+        source.beginTransaction();
+        try {
+            for (SchemaObject object : schema) {
+                if (!object.isTable()) {
+                    source.executeStatement(object.getTargetSql());
+                }
+            }
+
+            if (queryLong("SELECT count(*) AS value FROM main.sqlite_master WHERE name = 'sqlite_sequence'", null) > 0) {
+                source.executeStatement("DELETE FROM " + TARGET + ".sqlite_sequence");
+                source.executeStatement("INSERT INTO " + TARGET + ".sqlite_sequence (name, seq) SELECT name, seq FROM main.sqlite_sequence");
+            }
+
+            checkForeignKeys();
+            long userVersion = readUserVersion();
+            source.executeStatement("PRAGMA " + TARGET + ".user_version = " + userVersion);
+            source.executeStatement("DROP TABLE " + PROGRESS_TABLE);
+            source.commitTransaction();
+        } catch (SQLiteException exception) {
+            source.rollbackTransaction();
+            throw exception;
+        }
+    }
+
+    private void checkForeignKeys() throws SQLiteException {
+        SQLiteStatement statement = source.createStatement("PRAGMA " + TARGET + ".foreign_key_check");
+        try {
+            String table = statement.load(new SQLiteStatement.RowValueCallback<String>() {
+                @Override
+                public String readRow(SQLiteRow row) throws SQLiteException {
+                    return row.getText("table");
+                }
+            });
+            if (table != null) {
+                throw new SQLiteException(SQLiteNative.RESULT_CONSTRAINT, "Foreign keys of table " + table + " are violated in the converted database");
+            }
+        } finally {
+            statement.finish();
+        }
+    }
+
+    private long readUserVersion() throws SQLiteException {
+        SQLiteStatement statement = source.createStatement("PRAGMA main.user_version");
+        try {
+            Long userVersion = statement.load(new SQLiteStatement.RowValueCallback<Long>() {
+                @Override
+                public Long readRow(SQLiteRow row) throws SQLiteException {
+                    return row.getLong("user_version");
+                }
+            });
+            return userVersion == null ? 0 : userVersion;
+        } finally {
+            statement.finish();
+        }
+    }
+
+    private Progress readProgress(final String table) throws SQLiteException {
+        SQLiteStatement statement = source.createStatement("SELECT last_rowid, completed FROM " + PROGRESS_TABLE + " WHERE name = :name");
+        try {
+            statement.bindValue(table).to(":name");
+            Progress progress = statement.load(new SQLiteStatement.RowValueCallback<Progress>() {
+                @Override
+                public Progress readRow(SQLiteRow row) throws SQLiteException {
+                    return new Progress(row.getLong("last_rowid"), row.getBoolean("completed"));
+                }
+            });
+            return progress == null ? new Progress(null, false) : progress;
+        } finally {
+            statement.finish();
+        }
+    }
+
+    private void saveProgress(String table, @Nullable Long lastRowId, boolean completed) throws SQLiteException {
+        SQLiteStatement statement = source.createStatement("INSERT OR REPLACE INTO " + PROGRESS_TABLE + " (name, last_rowid, completed) VALUES (:name, :last_rowid, :completed)");
+        try {
+            statement.bindValue(table).to(":name");
+            statement.bindValue(lastRowId).to(":last_rowid");
+            statement.bindValue(completed).to(":completed");
+            statement.step();
+        } finally {
+            statement.finish();
+        }
+    }
+
+    private boolean hasRowId(String table) {
+        try {
+            source.createStatement("SELECT rowid FROM main." + quote(table) + " LIMIT 0").finish();
+            return true;
+        } catch (SQLiteException exception) {
+            return false;
+        }
+    }
+
+    private String getColumnList(String table) throws SQLiteException {
+        SQLiteStatement statement = source.createStatement("PRAGMA main.table_info(" + quote(table) + ")");
+        try {
+            List<String> columns = statement.readList(new SQLiteStatement.RowValueCallback<String>() {
+                @Override
+                public String readRow(SQLiteRow row) throws SQLiteException {
+                    return quote(row.getText("name"));
+                }
+            });
+            StringBuilder builder = new StringBuilder();
+            for (String column : columns) {
+                if (builder.length() > 0) {
+                    builder.append(", ");
+                }
+                builder.append(column);
+            }
+            return builder.toString();
+        } finally {
+            statement.finish();
+        }
+    }
+
+    private long queryLong(String sql, @Nullable Long rowId) throws SQLiteException {
+        Long value = queryNullableLong(sql, rowId);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Reads the first column of a single row query, which must be named "value".
+     */
+    private Long queryNullableLong(String sql, @Nullable Long rowId) throws SQLiteException {
+        SQLiteStatement statement = source.createStatement(sql);
+        try {
+            if (rowId != null) {
+                statement.bindValue(rowId).to(":rowid");
+            }
+            final Long[] value = new Long[1];
+            statement.load(new SQLiteStatement.RowCallback() {
+                @Override
+                public void readRow(SQLiteRow row) throws SQLiteException {
+                    value[0] = row.getLong("value");
+                }
+            });
+            return value[0];
+        } finally {
+            statement.finish();
+        }
+    }
+
+    static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Gets notified about the progress of a conversion.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after each copied batch.
+         *
+         * @param table      The table being copied
+         * @param copiedRows The number of rows of the table copied so far
+         * @param totalRows  The number of rows of the table
+         * @return false to stop the conversion after this batch. It can be continued later.
+         */
+        boolean onProgress(String table, long copiedRows, long totalRows);
+    }
+
+    private static class Progress {
+        private final Long lastRowId;
+        private final boolean completed;
+
+        Progress(Long lastRowId, Boolean completed) {
+            this.lastRowId = lastRowId;
+            this.completed = completed != null && completed;
+        }
+    }
+
+    private static class SchemaObject {
+        private final String type;
+        private final String name;
+        private final String sql;
+        private boolean shadowTable;
+
+        SchemaObject(String type, String name, String sql) {
+            this.type = type;
+            this.name = name;
+            this.sql = sql;
+        }
+
+        boolean isTable() {
+            return "table".equals(type);
+        }
+
+        boolean isVirtualTable() {
+            return isTable() && sql.startsWith("CREATE VIRTUAL TABLE ");
+        }
+
+        boolean isCopied() {
+            return isTable() && !shadowTable;
+        }
+
+        /**
+         * SQLite stores the CREATE statements normalized: keywords upper case, single spaces and without schema name.
+         * This inserts the target schema name in front of the object name.
+         */
+        String getTargetSql() {
+            String[] prefixes = {"CREATE VIRTUAL TABLE ", "CREATE TABLE ", "CREATE UNIQUE INDEX ", "CREATE INDEX ", "CREATE TRIGGER ", "CREATE VIEW "};
+            for (String prefix : prefixes) {
+                if (sql.startsWith(prefix)) {
+                    String definition = sql.substring(prefix.length());
+                    if (definition.toUpperCase().startsWith("IF NOT EXISTS ")) {
+                        definition = definition.substring("IF NOT EXISTS ".length());
+                    }
+                    return prefix + "IF NOT EXISTS " + TARGET + "." + definition;
+                }
+            }
+            throw new IllegalStateException("Unexpected schema statement: " + sql);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.hotwirestudios.sqlite.driver;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A prepackaged database, which is copied into place before a {@link DatabaseAccess} opens a database file that does not exist yet.
+ * Bundle a database that has already been migrated, including the migration table, so only migrations newer than the bundled snapshot are executed on first launch.
+ */
+public class DatabaseSeed {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final StreamProvider streamProvider;
+    private final boolean reencrypt;
+    private final SQLCipherKey key;
+    private final SQLCipherSettings cipherSettings;
+
+    /**
+     * Instantiates a new seed, which is encrypted like the database of the {@link DatabaseAccess} and copied as is.
+     *
+     * @param streamProvider Opens the bundled database, e.g. from the assets
+     */
+    public DatabaseSeed(@NonNull StreamProvider streamProvider) {
+        this.streamProvider = streamProvider;
+        this.reencrypt = false;
+        this.key = null;
+        this.cipherSettings = SQLCipherSettings.DEFAULT;
+    }
+
+    /**
+     * Instantiates a new seed, which is re-keyed to the key of the {@link DatabaseAccess} after it has been copied.
+     * An encrypted seed must have the cipher settings of the DatabaseAccess, as re-keying keeps them. A plaintext seed is encrypted and an encrypted seed is decrypted with {@link DatabaseConverter}.
+     * The conversion copies the seed row by row into a new file on first launch, which takes much longer than the file copy, so prefer bundling a seed that is already encrypted.
+     *
+     * @param streamProvider Opens the bundled database, e.g. from the assets
+     * @param key            The key of the bundled database (null for a plaintext database)
+     * @param cipherSettings The encryption settings of the bundled database
+     */
+    public DatabaseSeed(@NonNull StreamProvider streamProvider, @Nullable SQLCipherKey key, @NonNull SQLCipherSettings cipherSettings) {
+        this.streamProvider = streamProvider;
+        this.reencrypt = true;
+        this.key = key;
+        this.cipherSettings = cipherSettings;
+    }
+
+    /**
+     * Copies the seed to the provided path, unless a database exists there.
+     * The seed is copied and re-keyed next to the path and moved into place when it is complete, so an interrupted install starts over.
+     *
+     * @param path           The full qualified database path
+     * @param targetKey      The key of the database (null for a plaintext database)
+     * @param targetSettings The encryption settings of the database
+     * @return true, if the seed has been installed
+     * @throws IOException
+     * @throws SQLiteException
+     */
+    boolean install(@NonNull String path, @Nullable SQLCipherKey targetKey, @NonNull SQLCipherSettings targetSettings) throws IOException, SQLiteException {
+        File target = new File(path);
+        if (target.exists()) {
+            return false;
+        }
+
+        File copy = new File(path + "-seed");
+        File converted = new File(path + "-seed-converted");
+        try {
+            copy(copy);
+            if (!reencrypt || (key == null && targetKey == null)) {
+                move(copy, target);
+            } else if (key != null && targetKey != null) {
+                NativeSQLiteConnection connection = new NativeSQLiteConnection(copy.getPath(), key, cipherSettings, SQLiteNative.SQLITE_OPEN_READWRITE);
+                try {
+                    connection.open();
+                    connection.rekey(targetKey);
+                } finally {
+                    connection.close();
+                }
+                move(copy, target);
+            } else {
+                // sqlite3_rekey can neither encrypt nor decrypt a database
+                converted.delete();
+                NativeSQLiteConnection connection = new NativeSQLiteConnection(copy.getPath(), key, cipherSettings, SQLiteNative.SQLITE_OPEN_READWRITE);
+                try {
+                    connection.open();
+                    new DatabaseConverter(connection, converted.getPath(), targetKey, targetSettings, DatabaseConverter.DEFAULT_BATCH_SIZE).convert(null);
+                } finally {
+                    connection.close();
+                }
+                move(converted, target);
+            }
+            return true;
+        } finally {
+            copy.delete();
+            converted.delete();
+        }
+    }
+
+    private void copy(File file) throws IOException {
+        InputStream input = streamProvider.openStream();
+        try {
+            FileOutputStream output = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int length;
+                while ((length = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, length);
+                }
+                output.getFD().sync();
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void move(File source, File target) throws IOException {
+        if (!source.renameTo(target)) {
+            throw new IOException("Could not move " + source.getPath() + " to " + target.getPath());
+        }
+    }
+
+    /**
+     * Opens the stream of a bundled database.
+     */
+    public interface StreamProvider {
+        /**
+         * Opens the stream, which is closed once it has been copied.
+         *
+         * @return The stream
+         * @throws IOException
+         */
+        InputStream openStream() throws IOException;
+    }
+}
@@ -0,0 +1,185 @@
+package com.hotwirestudios.sqlite.driver;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Options for bulk importing JSON. See {@link SQLiteConnection#importJson(String, JsonImportOptions)}.
+ */
+public final class JsonImportOptions {
+
+    /**
+     * Runs an UPDATE followed by an INSERT OR IGNORE for each row. Rows violating a NOT NULL, CHECK or other UNIQUE constraint are skipped and counted in {@link JsonImportProgress#getRowsSkipped()}.
+     */
+    public static final int MERGE_UPDATE_THEN_INSERT = 0;
+    /**
+     * Writes each row with a single INSERT ... ON CONFLICT DO UPDATE. The import fails if this is not supported.
+     * Unlike {@link #MERGE_UPDATE_THEN_INSERT}, a row violating a NOT NULL, CHECK or other UNIQUE constraint aborts the import.
+     */
+    public static final int MERGE_UPSERT = 1;
+    /**
+     * Upserts rows like {@link #MERGE_UPSERT} if SQLite supports it (3.24.0+) and the primary keys match a PRIMARY KEY or UNIQUE constraint, otherwise updates and then inserts them.
+     */
+    public static final int MERGE_AUTOMATIC = 2;
+
+    @IntDef(value = {
+            MERGE_UPDATE_THEN_INSERT,
+            MERGE_UPSERT,
+            MERGE_AUTOMATIC})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface MergeStrategy {
+
+    }
+
+    /**
+     * Chunked imports do not checkpoint the WAL themselves.
+     */
+    public static final int CHECKPOINT_NONE = 0;
+    /**
+     * Checkpoints as much of the WAL as possible after each chunk, without waiting for readers.
+     */
+    public static final int CHECKPOINT_PASSIVE = 1;
+    /**
+     * Waits for readers after each chunk, then checkpoints the whole WAL and truncates it.
+     */
+    public static final int CHECKPOINT_TRUNCATE = 2;
+
+    @IntDef(value = {
+            CHECKPOINT_NONE,
+            CHECKPOINT_PASSIVE,
+            CHECKPOINT_TRUNCATE})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface CheckpointMode {
+
+    }
+
+    public static final int DEFAULT_PROGRESS_INTERVAL = 1000;
+
+    /**
+     * Receives the statistics of an import.
+     */
+    public interface ProgressListener {
+        /**
+         * Called on the importing thread every few rows and after each table.
+         *
+         * @param progress The statistics of the table being imported
+         * @return false to cancel the import, which then fails with {@link SQLiteNative#RESULT_INTERRUPT}
+         */
+        boolean onProgress(JsonImportProgress progress);
+    }
+
+    private final PrimaryKeysCallbackFunction primaryKeysCallback;
+    private @MergeStrategy int mergeStrategy = MERGE_UPDATE_THEN_INSERT;
+    private ProgressListener progressListener;
+    private int progressInterval = DEFAULT_PROGRESS_INTERVAL;
+    private int commitRows;
+    private long commitBytes;
+    private @CheckpointMode int checkpointMode = CHECKPOINT_NONE;
+    private String resumeId;
+
+    /**
+     * Instantiates new options that import tables by their declared primary keys.
+     */
+    public JsonImportOptions() {
+        this(null);
+    }
+
+    /**
+     * Instantiates new options.
+     *
+     * @param primaryKeysCallback A callback telling the native code which columns should be treated as primary keys. If null, the primary keys declared by the tables are used.
+     */
+    public JsonImportOptions(@Nullable PrimaryKeysCallbackFunction primaryKeysCallback) {
+        this.primaryKeysCallback = primaryKeysCallback;
+    }
+
+    @Nullable
+    public PrimaryKeysCallbackFunction getPrimaryKeysCallback() {
+        return primaryKeysCallback;
+    }
+
+    @MergeStrategy
+    public int getMergeStrategy() {
+        return mergeStrategy;
+    }
+
+    public void setMergeStrategy(@MergeStrategy int mergeStrategy) {
+        this.mergeStrategy = mergeStrategy;
+    }
+
+    @Nullable
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    public void setProgressListener(@Nullable ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public int getProgressInterval() {
+        return progressInterval;
+    }
+
+    /**
+     * @param progressInterval The number of rows between two progress reports. The import can only be cancelled when progress is reported.
+     */
+    public void setProgressInterval(int progressInterval) {
+        this.progressInterval = progressInterval;
+    }
+
+    public int getCommitRows() {
+        return commitRows;
+    }
+
+    /**
+     * Makes the import commit on its own every few rows, so the journal does not grow with the size of the payload.
+     * Chunked imports must not be run within a transaction, e.g. use {@link DatabaseAccess#performThreadsafe(DatabaseAccess.SQLiteConnectionContext, boolean)} without one.
+     *
+     * @param commitRows The number of rows after which the import is committed (0 for no limit)
+     */
+    public void setCommitRows(int commitRows) {
+        this.commitRows = commitRows;
+    }
+
+    public long getCommitBytes() {
+        return commitBytes;
+    }
+
+    /**
+     * Makes the import commit on its own, see {@link #setCommitRows(int)}. Text counts with its length in bytes, any other value with 8 bytes.
+     *
+     * @param commitBytes The number of bytes of values after which the import is committed (0 for no limit)
+     */
+    public void setCommitBytes(long commitBytes) {
+        this.commitBytes = commitBytes;
+    }
+
+    @CheckpointMode
+    public int getCheckpointMode() {
+        return checkpointMode;
+    }
+
+    /**
+     * @param checkpointMode How the WAL is checkpointed after each commit of a chunked import
+     */
+    public void setCheckpointMode(@CheckpointMode int checkpointMode) {
+        this.checkpointMode = checkpointMode;
+    }
+
+    @Nullable
+    public String getResumeId() {
+        return resumeId;
+    }
+
+    /**
+     * Makes a chunked import resumable. Its position is stored with each commit, so importing the same document with the same id after a failure skips what has been committed.
+     *
+     * @param resumeId Identifies the imported document, e.g. a sync token
+     */
+    public void setResumeId(@Nullable String resumeId) {
+        this.resumeId = resumeId;
+    }
+}
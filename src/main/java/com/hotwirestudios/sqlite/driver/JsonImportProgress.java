@@ -0,0 +1,82 @@
+package com.hotwirestudios.sqlite.driver;
+
+/**
+ * The statistics of the table being imported. See {@link JsonImportOptions#setProgressListener(JsonImportOptions.ProgressListener)}.
+ */
+public final class JsonImportProgress {
+    private final String table;
+    private final long rowsProcessed;
+    private final long rowsInserted;
+    private final long rowsUpdated;
+    private final long rowsUpserted;
+    private final long rowsDeleted;
+    private final long rowsSkipped;
+    private final long elapsedMillis;
+    private final boolean tableFinished;
+
+    JsonImportProgress(String table, long rowsProcessed, long rowsInserted, long rowsUpdated, long rowsUpserted, long rowsDeleted, long rowsSkipped, long elapsedMillis, boolean tableFinished) {
+        this.table = table;
+        this.rowsProcessed = rowsProcessed;
+        this.rowsInserted = rowsInserted;
+        this.rowsUpdated = rowsUpdated;
+        this.rowsUpserted = rowsUpserted;
+        this.rowsDeleted = rowsDeleted;
+        this.rowsSkipped = rowsSkipped;
+        this.elapsedMillis = elapsedMillis;
+        this.tableFinished = tableFinished;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @return The number of rows and deleted keys of the table read from the JSON so far
+     */
+    public long getRowsProcessed() {
+        return rowsProcessed;
+    }
+
+    public long getRowsInserted() {
+        return rowsInserted;
+    }
+
+    public long getRowsUpdated() {
+        return rowsUpdated;
+    }
+
+    /**
+     * @return The number of rows written by an upsert, which cannot tell inserts from updates. See {@link JsonImportOptions#MERGE_UPSERT}.
+     */
+    public long getRowsUpserted() {
+        return rowsUpserted;
+    }
+
+    /**
+     * @return The number of deleted rows, including the rows purged because they are missing in the JSON
+     */
+    public long getRowsDeleted() {
+        return rowsDeleted;
+    }
+
+    /**
+     * @return The number of rows that were neither inserted nor updated, e.g. because INSERT OR IGNORE hit another constraint
+     */
+    public long getRowsSkipped() {
+        return rowsSkipped;
+    }
+
+    /**
+     * @return The time since the import started
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return true, if the statistics are final for the table
+     */
+    public boolean isTableFinished() {
+        return tableFinished;
+    }
+}
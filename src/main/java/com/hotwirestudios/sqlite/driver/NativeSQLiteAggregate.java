@@ -0,0 +1,80 @@
+package com.hotwirestudios.sqlite.driver;
+
+import org.bytedeco.javacpp.SizeTPointer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Connects an aggregate or window function to the native callbacks of {@link NativeSQLiteFunctionRegistry}.
+ * The state of each group is kept in Java and looked up by the address of the group's native aggregate context, which SQLite keeps stable until the final call.
+ * The addresses of concurrently evaluated groups differ, so queries running on several threads at once only share the thread-safe map of states. Everything else is local to the call.
+ *
+ * @param <TState> The state type
+ */
+class NativeSQLiteAggregate<TState> {
+
+    private final SQLiteAggregateFunction<TState> function;
+    private final Map<Long, TState> states = new ConcurrentHashMap<>();
+
+    NativeSQLiteAggregate(SQLiteAggregateFunction<TState> function) {
+        this.function = function;
+    }
+
+    private TState getState(SQLiteNative.ContextHandle context, boolean remove) {
+        // Requesting a single byte makes SQLite allocate the group's context on first use; 0 only returns an existing one
+        long key = SQLiteNative.sqlite3_aggregate_context(context, remove ? 0 : 1);
+        TState state = remove ? states.remove(key) : states.get(key);
+        if (state == null) {
+            state = function.createState();
+            if (!remove && key != 0) {
+                states.put(key, state);
+            }
+        }
+        return state;
+    }
+
+    void step(SQLiteNative.ContextHandle context, int argc, SizeTPointer argv) {
+        NativeSQLiteFunctionContext functionContext = new NativeSQLiteFunctionContext().bind(context, argc, argv);
+        try {
+            function.step(getState(context, false), functionContext);
+        } catch (Exception exception) {
+            functionContext.reportException(exception);
+        } finally {
+            functionContext.unbind();
+        }
+    }
+
+    void finish(SQLiteNative.ContextHandle context) {
+        NativeSQLiteFunctionContext functionContext = new NativeSQLiteFunctionContext().bind(context);
+        try {
+            function.finish(getState(context, true), functionContext);
+        } catch (Exception exception) {
+            functionContext.reportException(exception);
+        } finally {
+            functionContext.unbind();
+        }
+    }
+
+    void value(SQLiteNative.ContextHandle context) {
+        NativeSQLiteFunctionContext functionContext = new NativeSQLiteFunctionContext().bind(context);
+        try {
+            ((SQLiteWindowFunction<TState>) function).value(getState(context, false), functionContext);
+        } catch (Exception exception) {
+            functionContext.reportException(exception);
+        } finally {
+            functionContext.unbind();
+        }
+    }
+
+    void inverse(SQLiteNative.ContextHandle context, int argc, SizeTPointer argv) {
+        NativeSQLiteFunctionContext functionContext = new NativeSQLiteFunctionContext().bind(context, argc, argv);
+        try {
+            ((SQLiteWindowFunction<TState>) function).inverse(getState(context, false), functionContext);
+        } catch (Exception exception) {
+            functionContext.reportException(exception);
+        } finally {
+            functionContext.unbind();
+        }
+    }
+}
@@ -5,8 +5,13 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 
 import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.SizeTPointer;
 
-import java.nio.charset.Charset;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by FabianM on 18.05.16.
@@ -15,19 +20,39 @@ public class NativeSQLiteConnection implements SQLiteConnectionInternal, SQLiteR
 
     private final String path;
     private final @OpenFlags int flags;
-    private final String key;
+    private final SQLCipherKey key;
+    private final SQLCipherSettings cipherSettings;
     private final SQLiteNative.CollationNeededCallback collationCallback;
+    // Functions must stay registered as long as SQLite may call them
+    private final List<Long> functionIds = new ArrayList<>();
+    private SQLiteNative.ImportCache importCache;
+    private SQLiteNative.Profiler profiler;
+    private volatile SlowQueryLog slowQueryLog;
+    private volatile ScanReport scanReport;
 
     private SQLiteNative.ConnectionHandle handle;
 
     public NativeSQLiteConnection(@NonNull String path, @Nullable String key, @OpenFlags int flags) {
+        this(path, key == null ? null : SQLCipherKey.fromPassphrase(key), SQLCipherSettings.DEFAULT, flags);
+    }
+
+    /**
+     * Instantiates a new connection to an encrypted database.
+     *
+     * @param path           The full qualified database path
+     * @param key            The key (null to skip encryption)
+     * @param cipherSettings The encryption settings
+     * @param flags          The open flags
+     */
+    public NativeSQLiteConnection(@NonNull String path, @Nullable SQLCipherKey key, @NonNull SQLCipherSettings cipherSettings, @OpenFlags int flags) {
         this.path = path;
         this.key = key;
+        this.cipherSettings = cipherSettings;
         this.flags = flags;
         this.collationCallback = new SQLiteNative.CollationNeededCallback();
     }
 
-    public void open() throws SQLiteException {
+    public synchronized void open() throws SQLiteException {
         if (handle != null) {
             return;
         }
@@ -38,20 +63,39 @@ public class NativeSQLiteConnection implements SQLiteConnectionInternal, SQLiteR
         handle = pointer;
 
         if (key != null) {
-            byte[] bytes = key.getBytes(Charset.forName("utf-8"));
+            byte[] bytes = key.getKeyBytes();
             @SQLiteResult int cryptoResult = SQLiteNative.sqlite3_key(handle, new BytePointer(bytes), bytes.length);
             handleResultCode(cryptoResult, SQLiteNative.RESULT_OK);
+            cipherSettings.apply(this, key);
         }
 
         @SQLiteResult int collationResult = SQLiteNative.sqlite3_collation_needed(handle, null, collationCallback);
         handleResultCode(collationResult, SQLiteNative.RESULT_OK);
+
+        if (profiler != null) {
+            @SQLiteResult int profilerResult = SQLiteNative.sqlite_profiler_attach(handle, profiler);
+            handleResultCode(profilerResult, SQLiteNative.RESULT_OK);
+        }
+    }
+
+    /**
+     * Changes the key of the open database in place (sqlite3_rekey). This rewrites all pages in a single pass and transaction.
+     * To convert large databases in bounded steps or between plaintext and encrypted, use {@link DatabaseConverter}.
+     *
+     * @param newKey The new key
+     * @throws SQLiteException
+     */
+    public void rekey(@NonNull SQLCipherKey newKey) throws SQLiteException {
+        byte[] bytes = newKey.getKeyBytes();
+        @SQLiteResult int result = SQLiteNative.sqlite3_rekey(handle, new BytePointer(bytes), bytes.length);
+        handleResultCode(result, SQLiteNative.RESULT_OK);
     }
 
     public boolean isOpen() {
         return handle != null;
     }
 
-    public void close() {
+    public synchronized void close() {
         if (handle == null) {
             return;
         }
@@ -62,14 +106,122 @@ public class NativeSQLiteConnection implements SQLiteConnectionInternal, SQLiteR
             return;
         }
         handle = null;
+        for (long id : functionIds) {
+            NativeSQLiteFunctionRegistry.unregister(id);
+        }
+        functionIds.clear();
+        if (importCache != null) {
+            SQLiteNative.sqlite_import_cache_destroy(importCache);
+            importCache = null;
+        }
+    }
+
+    /**
+     * Starts aggregating the runtime of all statements per SQL natively (sqlite3_trace_v2). Statements only differing in whitespace or literals are aggregated.
+     * While profiling is stopped, no trace callback is registered, so it costs nothing. Profiling continues when the connection is reopened,
+     * so closing the connection does not free the profiler. Call {@link #stopProfiling()} once the connection is no longer used.
+     * The methods for profiling may be called from any thread.
+     *
+     * @param capacity The maximum number of distinct statements (rounded up to a power of two)
+     * @throws SQLiteException
+     */
+    public synchronized void startProfiling(int capacity) throws SQLiteException {
+        if (profiler != null) {
+            return;
+        }
+
+        SQLiteNative.Profiler newProfiler = SQLiteNative.sqlite_profiler_create(capacity);
+        if (newProfiler == null || newProfiler.isNull()) {
+            throw new SQLiteException(SQLiteNative.RESULT_NO_MEMORY, "Could not create the profiler");
+        }
+        if (handle != null) {
+            @SQLiteResult int result = SQLiteNative.sqlite_profiler_attach(handle, newProfiler);
+            if (result != SQLiteNative.RESULT_OK) {
+                SQLiteNative.sqlite_profiler_destroy(newProfiler);
+                handleResultCode(result, SQLiteNative.RESULT_OK);
+            }
+        }
+        profiler = newProfiler;
+    }
+
+    /**
+     * Stops profiling and discards the statistics.
+     */
+    public synchronized void stopProfiling() {
+        if (profiler == null) {
+            return;
+        }
+
+        if (handle != null) {
+            SQLiteNative.sqlite_profiler_detach(handle);
+        }
+        SQLiteNative.sqlite_profiler_destroy(profiler);
+        profiler = null;
+    }
+
+    public synchronized boolean isProfiling() {
+        return profiler != null;
+    }
+
+    /**
+     * Takes a snapshot of the statements executed while profiling. The counters are read without blocking the connection,
+     * so an execution finishing during the snapshot may be in the count of one snapshot and in the runtimes of the next.
+     *
+     * @param reset If true, the statistics are reset, so the next snapshot only contains later executions
+     * @return The snapshot or null, if profiling has not been started
+     */
+    @Nullable
+    public synchronized SQLiteProfile getProfile(boolean reset) {
+        if (profiler == null) {
+            return null;
+        }
+
+        int capacity = SQLiteNative.sqlite_profiler_capacity(profiler);
+        SQLiteNative.ProfilerEntry entries = new SQLiteNative.ProfilerEntry(capacity);
+        try {
+            int count = SQLiteNative.sqlite_profiler_snapshot(profiler, entries, capacity, reset ? 1 : 0);
+            List<StatementProfile> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                SQLiteNative.ProfilerEntry entry = entries.position(i);
+                long[] histogram = new long[StatementProfile.HISTOGRAM_BUCKETS];
+                for (int bucket = 0; bucket < histogram.length; bucket++) {
+                    histogram[bucket] = entry.histogram(bucket);
+                }
+                statements.add(new StatementProfile(entry.sql().getString(), entry.count(), entry.total_ns(), entry.max_ns(), histogram));
+            }
+            return new SQLiteProfile(statements, SQLiteNative.sqlite_profiler_dropped(profiler, reset ? 1 : 0));
+        } finally {
+            entries.position(0).deallocate();
+        }
+    }
+
+    /**
+     * Reads the page cache, lookaside and memory usage of the connection and the memory usage of SQLite in the process.
+     * The method may be called from any thread. Use it to tune cache_size and to tell whether memory pressure comes from SQLite.
+     *
+     * @param reset If true, the counters of the connection and the high-water marks of the process are reset, so the next snapshot only counts later activity.
+     *              The process-wide high-water marks are shared by all connections.
+     * @return The snapshot or null, if the connection is not open
+     * @throws SQLiteException
+     */
+    @Nullable
+    public synchronized SQLiteStatus getStatus(boolean reset) throws SQLiteException {
+        if (handle == null) {
+            return null;
+        }
+        return new SQLiteStatus(handle, this, reset);
     }
 
     @Override
     public SQLiteStatement createStatement(String sql) throws SQLiteException {
+        return prepareStatement(sql, slowQueryLog, scanReport);
+    }
+
+    NativeSQLiteStatement prepareStatement(String sql, @Nullable SlowQueryLog log, @Nullable ScanReport scanReport) throws SQLiteException {
         SQLiteNative.StatementHandle statement = new SQLiteNative.StatementHandle();
         @SQLiteResult int result = SQLiteNative.sqlite3_prepare_v2(handle, sql, -1, statement, null);
         handleResultCode(result, SQLiteNative.RESULT_OK);
-        return new NativeSQLiteStatement(statement, this);
+        return new NativeSQLiteStatement(statement, this, log, scanReport);
     }
 
     @Override
@@ -80,8 +232,56 @@ public class NativeSQLiteConnection implements SQLiteConnectionInternal, SQLiteR
 
     @Override
     public void registerFunction(String name, int numberOfArguments, SQLiteFunction function) throws SQLiteException {
-        @SQLiteResult int result = SQLiteNative.sqlite3_create_function(handle, name, numberOfArguments, SQLiteNative.SQLITE_UTF8, null, new SQLiteNative.FunctionCallback(function), null, null);
-        handleResultCode(result, SQLiteNative.RESULT_OK);
+        long id = NativeSQLiteFunctionRegistry.register(function);
+        @SQLiteResult int result = SQLiteNative.sqlite3_create_function(handle, name, numberOfArguments, SQLiteNative.SQLITE_UTF8,
+                NativeSQLiteFunctionRegistry.getUserData(id), NativeSQLiteFunctionRegistry.FUNCTION, null, null);
+        handleFunctionResult(result, id);
+    }
+
+    @Override
+    public void registerScalarFunction(String name, int numberOfArguments, final SQLiteScalarFunction function) throws SQLiteException {
+        long id = NativeSQLiteFunctionRegistry.register(new SQLiteNative.ValuesHandler() {
+            @Override
+            public void call(SQLiteNative.ContextHandle context, int argc, SizeTPointer argv) {
+                // A function may be called by several connections at once, so each call has its own context
+                NativeSQLiteFunctionContext functionContext = new NativeSQLiteFunctionContext().bind(context, argc, argv);
+                try {
+                    function.call(functionContext, functionContext);
+                } catch (Exception exception) {
+                    functionContext.reportException(exception);
+                } finally {
+                    functionContext.unbind();
+                }
+            }
+        });
+        @SQLiteResult int result = SQLiteNative.sqlite3_create_function(handle, name, numberOfArguments, SQLiteNative.SQLITE_UTF8,
+                NativeSQLiteFunctionRegistry.getUserData(id), NativeSQLiteFunctionRegistry.SCALAR, null, null);
+        handleFunctionResult(result, id);
+    }
+
+    @Override
+    public <TState> void registerAggregateFunction(String name, int numberOfArguments, SQLiteAggregateFunction<TState> function) throws SQLiteException {
+        long id = NativeSQLiteFunctionRegistry.register(new NativeSQLiteAggregate<>(function));
+        @SQLiteResult int result = SQLiteNative.sqlite3_create_function(handle, name, numberOfArguments, SQLiteNative.SQLITE_UTF8,
+                NativeSQLiteFunctionRegistry.getUserData(id), (SQLiteNative.ScalarCallback) null, NativeSQLiteFunctionRegistry.STEP, NativeSQLiteFunctionRegistry.FINAL);
+        handleFunctionResult(result, id);
+    }
+
+    @Override
+    public <TState> void registerWindowFunction(String name, int numberOfArguments, SQLiteWindowFunction<TState> function) throws SQLiteException {
+        long id = NativeSQLiteFunctionRegistry.register(new NativeSQLiteAggregate<>(function));
+        @SQLiteResult int result = SQLiteNative.sqlite3_create_window_function(handle, name, numberOfArguments, SQLiteNative.SQLITE_UTF8,
+                NativeSQLiteFunctionRegistry.getUserData(id), NativeSQLiteFunctionRegistry.STEP, NativeSQLiteFunctionRegistry.FINAL,
+                NativeSQLiteFunctionRegistry.VALUE, NativeSQLiteFunctionRegistry.INVERSE, null);
+        handleFunctionResult(result, id);
+    }
+
+    private void handleFunctionResult(@SQLiteResult int result, long id) throws SQLiteException {
+        if (result != SQLiteNative.RESULT_OK) {
+            NativeSQLiteFunctionRegistry.unregister(id);
+            throwExceptionWithCode(result);
+        }
+        functionIds.add(id);
     }
 
     @Override
@@ -111,6 +311,32 @@ public class NativeSQLiteConnection implements SQLiteConnectionInternal, SQLiteR
         executeStatement("ROLLBACK TRANSACTION");
     }
 
+    @Override
+    public void enableSlowQueryLog(long thresholdMillis, int capacity) {
+        slowQueryLog = new SlowQueryLog(this, TimeUnit.MILLISECONDS.toNanos(thresholdMillis), capacity);
+    }
+
+    @Override
+    public void disableSlowQueryLog() {
+        slowQueryLog = null;
+    }
+
+    @Override
+    public List<SlowQuery> getSlowQueries(boolean clear) {
+        SlowQueryLog log = slowQueryLog;
+        return log == null ? new ArrayList<SlowQuery>() : log.getQueries(clear);
+    }
+
+    @Override
+    public void enableScanReport(int threshold, @NonNull ScanReporter reporter) {
+        scanReport = new ScanReport(threshold, reporter);
+    }
+
+    @Override
+    public void disableScanReport() {
+        scanReport = null;
+    }
+
     @Override
     public long getLastInsertRowId() {
         return SQLiteNative.sqlite3_last_insert_rowid(handle);
@@ -122,9 +348,182 @@ public class NativeSQLiteConnection implements SQLiteConnectionInternal, SQLiteR
     }
 
     @Override
-    public void importJson(String json, PrimaryKeysCallbackFunction primaryKeysCallback) throws SQLiteException {
-        @SQLiteResult int result = SQLiteNative.sqlite_import_json(handle, json, new SQLiteNative.PrimaryKeysCallback(primaryKeysCallback));
-        handleResultCode(result, SQLiteNative.RESULT_OK);
+    public void importJson(String json, @Nullable PrimaryKeysCallbackFunction primaryKeysCallback) throws SQLiteException {
+        importJson(json, new JsonImportOptions(primaryKeysCallback));
+    }
+
+    @Override
+    public void importJson(String json, JsonImportOptions importOptions) throws SQLiteException {
+        NativeImportOptions options = createImportOptions(importOptions);
+        @SQLiteResult int result;
+        try {
+            result = SQLiteNative.sqlite_import_json_text(handle, json, options.pointer);
+        } finally {
+            options.release();
+        }
+        handleImportResult(result, options.pointer);
+    }
+
+    @Override
+    public void importJson(InputStream stream, @Nullable PrimaryKeysCallbackFunction primaryKeysCallback) throws SQLiteException {
+        importJson(stream, new JsonImportOptions(primaryKeysCallback));
+    }
+
+    @Override
+    public void importJson(InputStream stream, JsonImportOptions importOptions) throws SQLiteException {
+        NativeImportOptions options = createImportOptions(importOptions);
+        NativeSQLiteJsonCallbacks.StreamReader reader = new NativeSQLiteJsonCallbacks.StreamReader(stream);
+        long readerId = NativeSQLiteJsonCallbacks.register(reader);
+        @SQLiteResult int result;
+        try {
+            result = SQLiteNative.sqlite_import_json_stream(handle, NativeSQLiteJsonCallbacks.READ, NativeSQLiteJsonCallbacks.getContext(readerId), options.pointer);
+        } finally {
+            NativeSQLiteJsonCallbacks.unregister(readerId);
+            options.release();
+        }
+        if (reader.getException() != null) {
+            throw new SQLiteException(SQLiteNative.RESULT_IO_ERROR, reader.getException().getMessage());
+        }
+        handleImportResult(result, options.pointer);
+    }
+
+    @Override
+    public void importJsonFile(String path, @Nullable PrimaryKeysCallbackFunction primaryKeysCallback) throws SQLiteException {
+        importJsonFile(path, new JsonImportOptions(primaryKeysCallback));
+    }
+
+    @Override
+    public void importJsonFile(String path, JsonImportOptions importOptions) throws SQLiteException {
+        NativeImportOptions options = createImportOptions(importOptions);
+        @SQLiteResult int result;
+        try {
+            result = SQLiteNative.sqlite_import_json_file(handle, path, options.pointer);
+        } finally {
+            options.release();
+        }
+        handleImportResult(result, options.pointer);
+    }
+
+    @Override
+    public void importJsonFileDescriptor(int fd, @Nullable PrimaryKeysCallbackFunction primaryKeysCallback) throws SQLiteException {
+        importJsonFileDescriptor(fd, new JsonImportOptions(primaryKeysCallback));
+    }
+
+    @Override
+    public void importJsonFileDescriptor(int fd, JsonImportOptions importOptions) throws SQLiteException {
+        NativeImportOptions options = createImportOptions(importOptions);
+        @SQLiteResult int result;
+        try {
+            result = SQLiteNative.sqlite_import_json_fd(handle, fd, options.pointer);
+        } finally {
+            options.release();
+        }
+        handleImportResult(result, options.pointer);
+    }
+
+    @Override
+    public void exportJson(String sql, @Nullable SQLiteStatement.Bindings bindings, OutputStream stream) throws SQLiteException {
+        SQLiteNative.ExportOptions options = new SQLiteNative.ExportOptions();
+        NativeSQLiteJsonCallbacks.StreamWriter writer = new NativeSQLiteJsonCallbacks.StreamWriter(stream);
+        long writerId = NativeSQLiteJsonCallbacks.register(writer);
+        NativeSQLiteStatement statement = prepareStatement(sql, null, scanReport);
+        @SQLiteResult int result;
+        try {
+            if (bindings != null) {
+                bindings.bind(statement);
+            }
+            result = SQLiteNative.sqlite_export_json_stream(statement.getHandle(), NativeSQLiteJsonCallbacks.WRITE, NativeSQLiteJsonCallbacks.getContext(writerId), options);
+        } finally {
+            statement.finish();
+            NativeSQLiteJsonCallbacks.unregister(writerId);
+        }
+        if (writer.getException() != null) {
+            throw new SQLiteException(SQLiteNative.RESULT_IO_ERROR, writer.getException().getMessage());
+        }
+        handleExportResult(result, options);
+    }
+
+    @Override
+    public void exportJsonFile(String sql, @Nullable SQLiteStatement.Bindings bindings, String path) throws SQLiteException {
+        SQLiteNative.ExportOptions options = new SQLiteNative.ExportOptions();
+        NativeSQLiteStatement statement = prepareStatement(sql, null, scanReport);
+        @SQLiteResult int result;
+        try {
+            if (bindings != null) {
+                bindings.bind(statement);
+            }
+            result = SQLiteNative.sqlite_export_json_file(statement.getHandle(), path, options);
+        } finally {
+            statement.finish();
+        }
+        handleExportResult(result, options);
+    }
+
+    private NativeImportOptions createImportOptions(JsonImportOptions options) {
+        // The cache lives as long as the connection, so the schema is only read again after it changed
+        if (importCache == null) {
+            importCache = SQLiteNative.sqlite_import_cache_create();
+        }
+        return new NativeImportOptions(options, importCache);
+    }
+
+    private void handleImportResult(@SQLiteResult int result, SQLiteNative.ImportOptions options) throws SQLiteException {
+        if (result == SQLiteNative.RESULT_OK) {
+            return;
+        }
+
+        // Errors not caused by SQLite (e.g. invalid JSON) are reported through the options
+        String message = options.error_message().getString();
+        throw new SQLiteException(result, message == null || message.isEmpty() ? getLastErrorMessage() : message);
+    }
+
+    private void handleExportResult(@SQLiteResult int result, SQLiteNative.ExportOptions options) throws SQLiteException {
+        if (result == SQLiteNative.RESULT_OK) {
+            return;
+        }
+
+        String message = options.error_message().getString();
+        throw new SQLiteException(result, message == null || message.isEmpty() ? getLastErrorMessage() : message);
+    }
+
+    /**
+     * The native representation of import options. Keeps the callbacks referenced, so they are not collected during the import.
+     * Must be released after the import.
+     */
+    private static class NativeImportOptions {
+        final SQLiteNative.ImportOptions pointer = new SQLiteNative.ImportOptions();
+        final SQLiteNative.PrimaryKeysCallback primaryKeysCallback;
+        final long progressId;
+        final BytePointer resumeId;
+
+        NativeImportOptions(JsonImportOptions options, SQLiteNative.ImportCache cache) {
+            primaryKeysCallback = options.getPrimaryKeysCallback() != null ? new SQLiteNative.PrimaryKeysCallback(options.getPrimaryKeysCallback()) : null;
+            pointer.primary_keys(primaryKeysCallback);
+            pointer.cache(cache);
+            pointer.merge_strategy(options.getMergeStrategy());
+            if (options.getProgressListener() != null) {
+                progressId = NativeSQLiteJsonCallbacks.register(options.getProgressListener());
+                pointer.progress(NativeSQLiteJsonCallbacks.PROGRESS);
+                pointer.progress_context(NativeSQLiteJsonCallbacks.getContext(progressId));
+            } else {
+                progressId = 0;
+            }
+            pointer.progress_interval(options.getProgressInterval());
+            pointer.commit_rows(options.getCommitRows());
+            pointer.commit_bytes(options.getCommitBytes());
+            pointer.checkpoint(options.getCheckpointMode());
+            resumeId = options.getResumeId() != null ? new BytePointer(options.getResumeId()) : null;
+            pointer.resume_id(resumeId);
+        }
+
+        /**
+         * Unregisters the progress listener.
+         */
+        void release() {
+            if (progressId != 0) {
+                NativeSQLiteJsonCallbacks.unregister(progressId);
+            }
+        }
     }
 
     private String getResultMessage(@SQLiteResult int code) {
@@ -0,0 +1,141 @@
+package com.hotwirestudios.sqlite.driver;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.SizeTPointer;
+
+/**
+ * Provides the arguments and result of a single native function call.
+ * A context is created for each native call, as a function may be called by several connections at once. Its single value handle is reused for all arguments of the call.
+ */
+class NativeSQLiteFunctionContext implements SQLiteFunctionArguments, SQLiteFunctionResult {
+
+    private final SQLiteNative.ValueHandle value = new SQLiteNative.ValueHandle();
+    private SQLiteNative.ContextHandle context;
+    private SizeTPointer argv;
+    private int argc;
+
+    NativeSQLiteFunctionContext bind(SQLiteNative.ContextHandle context, int argc, SizeTPointer argv) {
+        this.context = context;
+        this.argc = argc;
+        this.argv = argv;
+        return this;
+    }
+
+    NativeSQLiteFunctionContext bind(SQLiteNative.ContextHandle context) {
+        return bind(context, 0, null);
+    }
+
+    void unbind() {
+        context = null;
+        argv = null;
+        argc = 0;
+    }
+
+    void reportException(Exception exception) {
+        String message = exception.getMessage();
+        setError(message == null ? exception.getClass().getSimpleName() : message);
+    }
+
+    private SQLiteNative.ValueHandle valueAt(int index) {
+        if (index < 0 || index >= argc) {
+            throw new IndexOutOfBoundsException();
+        }
+        return value.reset(argv.get(index));
+    }
+
+    @Override
+    public int getCount() {
+        return argc;
+    }
+
+    @Override
+    public int getType(int index) {
+        //noinspection WrongConstant
+        return SQLiteNative.sqlite3_value_type(valueAt(index));
+    }
+
+    @Override
+    public boolean isNull(int index) {
+        return getType(index) == NativeSQLiteStatement.NULL;
+    }
+
+    @Override
+    public int getInt(int index) {
+        return SQLiteNative.sqlite3_value_int(valueAt(index));
+    }
+
+    @Override
+    public long getLong(int index) {
+        return SQLiteNative.sqlite3_value_int64(valueAt(index));
+    }
+
+    @Override
+    public double getDouble(int index) {
+        return SQLiteNative.sqlite3_value_double(valueAt(index));
+    }
+
+    @Override
+    public String getText(int index) {
+        return SQLiteNative.sqlite3_value_text(valueAt(index));
+    }
+
+    @Override
+    public byte[] getBlob(int index) {
+        SQLiteNative.ValueHandle handle = valueAt(index);
+        if (SQLiteNative.sqlite3_value_type(handle) == NativeSQLiteStatement.NULL) {
+            return null;
+        }
+
+        // sqlite3_value_bytes must be called after sqlite3_value_blob, because the blob call may convert the value
+        BytePointer blob = SQLiteNative.sqlite3_value_blob(handle);
+        int length = SQLiteNative.sqlite3_value_bytes(handle);
+        byte[] bytes = new byte[length];
+        if (blob != null && length > 0) {
+            blob.get(bytes);
+        }
+        return bytes;
+    }
+
+    @Override
+    public void setNull() {
+        SQLiteNative.sqlite3_result_null(context);
+    }
+
+    @Override
+    public void setInt(int value) {
+        SQLiteNative.sqlite3_result_int(context, value);
+    }
+
+    @Override
+    public void setLong(long value) {
+        SQLiteNative.sqlite3_result_int64(context, value);
+    }
+
+    @Override
+    public void setDouble(double value) {
+        SQLiteNative.sqlite3_result_double(context, value);
+    }
+
+    @Override
+    public void setText(String value) {
+        if (value == null) {
+            setNull();
+            return;
+        }
+        SQLiteNative.sqlite3_result_text(context, value, -1, SQLiteNative.SQLITE_TRANSIENT);
+    }
+
+    @Override
+    public void setBlob(byte[] value) {
+        if (value == null) {
+            setNull();
+            return;
+        }
+        SQLiteNative.sqlite3_result_blob(context, value, value.length, SQLiteNative.SQLITE_TRANSIENT);
+    }
+
+    @Override
+    public void setError(String message) {
+        SQLiteNative.sqlite3_result_error(context, message, -1);
+    }
+}
@@ -0,0 +1,110 @@
+package com.hotwirestudios.sqlite.driver;
+
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.javacpp.SizeTPointer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatches the native calls of all registered functions to their Java implementations.
+ * JavaCPP 1.3 keeps a single native instance per FunctionPointer class and the most recent allocation wins, so there is exactly one callback per role (function, scalar, step, final, value, inverse), shared by all functions of all connections.
+ * Each function is registered with a unique id as user data (pApp), which the callbacks read with sqlite3_user_data to look up the implementation.
+ */
+final class NativeSQLiteFunctionRegistry {
+    private static final Map<Long, Object> functions = new ConcurrentHashMap<>();
+    private static final AtomicLong nextId = new AtomicLong(1);
+
+    static final SQLiteNative.FunctionCallback FUNCTION = new SQLiteNative.FunctionCallback(new SQLiteFunction() {
+        @Override
+        public void call(SQLiteNative.ContextHandle context, int argc, PointerPointer<SQLiteNative.ValueHandle> argv) {
+            SQLiteFunction function = (SQLiteFunction) get(context);
+            if (function != null) {
+                function.call(context, argc, argv);
+            }
+        }
+    });
+
+    static final SQLiteNative.ScalarCallback SCALAR = new SQLiteNative.ScalarCallback(new SQLiteNative.ValuesHandler() {
+        @Override
+        public void call(SQLiteNative.ContextHandle context, int argc, SizeTPointer argv) {
+            SQLiteNative.ValuesHandler function = (SQLiteNative.ValuesHandler) get(context);
+            if (function != null) {
+                function.call(context, argc, argv);
+            }
+        }
+    });
+
+    static final SQLiteNative.AggregateStepCallback STEP = new SQLiteNative.AggregateStepCallback(new SQLiteNative.ValuesHandler() {
+        @Override
+        public void call(SQLiteNative.ContextHandle context, int argc, SizeTPointer argv) {
+            NativeSQLiteAggregate<?> aggregate = (NativeSQLiteAggregate<?>) get(context);
+            if (aggregate != null) {
+                aggregate.step(context, argc, argv);
+            }
+        }
+    });
+
+    static final SQLiteNative.AggregateFinalCallback FINAL = new SQLiteNative.AggregateFinalCallback(new SQLiteNative.ContextHandler() {
+        @Override
+        public void call(SQLiteNative.ContextHandle context) {
+            NativeSQLiteAggregate<?> aggregate = (NativeSQLiteAggregate<?>) get(context);
+            if (aggregate != null) {
+                aggregate.finish(context);
+            }
+        }
+    });
+
+    static final SQLiteNative.WindowValueCallback VALUE = new SQLiteNative.WindowValueCallback(new SQLiteNative.ContextHandler() {
+        @Override
+        public void call(SQLiteNative.ContextHandle context) {
+            NativeSQLiteAggregate<?> aggregate = (NativeSQLiteAggregate<?>) get(context);
+            if (aggregate != null) {
+                aggregate.value(context);
+            }
+        }
+    });
+
+    static final SQLiteNative.WindowInverseCallback INVERSE = new SQLiteNative.WindowInverseCallback(new SQLiteNative.ValuesHandler() {
+        @Override
+        public void call(SQLiteNative.ContextHandle context, int argc, SizeTPointer argv) {
+            NativeSQLiteAggregate<?> aggregate = (NativeSQLiteAggregate<?>) get(context);
+            if (aggregate != null) {
+                aggregate.inverse(context, argc, argv);
+            }
+        }
+    });
+
+    private NativeSQLiteFunctionRegistry() {
+    }
+
+    /**
+     * Registers an implementation, which stays reachable until it is unregistered.
+     *
+     * @param function A SQLiteFunction, a ValuesHandler for scalar functions or a NativeSQLiteAggregate
+     * @return The id to pass as user data, see {@link #getUserData(long)}
+     */
+    static long register(Object function) {
+        long id = nextId.getAndIncrement();
+        functions.put(id, function);
+        return id;
+    }
+
+    static void unregister(long id) {
+        functions.remove(id);
+    }
+
+    static Pointer getUserData(long id) {
+        return new StaticPointer(id);
+    }
+
+    private static Object get(SQLiteNative.ContextHandle context) {
+        Object function = functions.get(SQLiteNative.sqlite3_user_data(context));
+        if (function == null) {
+            SQLiteNative.sqlite3_result_error(context, "The function has been unregistered", -1);
+        }
+        return function;
+    }
+}
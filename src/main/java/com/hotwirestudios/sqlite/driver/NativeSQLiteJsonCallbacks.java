@@ -0,0 +1,139 @@
+package com.hotwirestudios.sqlite.driver;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Pointer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatches the native callbacks of JSON imports and exports to the streams and progress listeners they belong to.
+ * Like the function callbacks (see {@link NativeSQLiteFunctionRegistry}), there is a single callback per role, shared by all connections.
+ * Each import or export registers its target with a unique id, which is passed to the native call as context and handed back to the callback.
+ */
+final class NativeSQLiteJsonCallbacks {
+    private static final Map<Long, Object> targets = new ConcurrentHashMap<>();
+    private static final AtomicLong nextId = new AtomicLong(1);
+
+    static final SQLiteNative.ReadCallback READ = new SQLiteNative.ReadCallback(new SQLiteNative.ReadHandler() {
+        @Override
+        public int read(Pointer context, BytePointer buffer, int capacity) {
+            StreamReader reader = (StreamReader) targets.get(context.address());
+            return reader != null ? reader.read(buffer, capacity) : -1;
+        }
+    });
+
+    static final SQLiteNative.WriteCallback WRITE = new SQLiteNative.WriteCallback(new SQLiteNative.WriteHandler() {
+        @Override
+        public int write(Pointer context, BytePointer buffer, int size) {
+            StreamWriter writer = (StreamWriter) targets.get(context.address());
+            return writer != null ? writer.write(buffer, size) : -1;
+        }
+    });
+
+    static final SQLiteNative.ProgressCallback PROGRESS = new SQLiteNative.ProgressCallback(new SQLiteNative.ProgressHandler() {
+        @Override
+        public int call(Pointer context, SQLiteNative.ImportProgress progress) {
+            JsonImportOptions.ProgressListener listener = (JsonImportOptions.ProgressListener) targets.get(context.address());
+            if (listener == null) {
+                return 1;
+            }
+            JsonImportProgress statistics = new JsonImportProgress(progress.table().getString(), progress.rows_processed(), progress.rows_inserted(),
+                    progress.rows_updated(), progress.rows_upserted(), progress.rows_deleted(), progress.rows_skipped(), progress.elapsed_ms(),
+                    progress.table_finished() != 0);
+            return listener.onProgress(statistics) ? 0 : 1;
+        }
+    });
+
+    private NativeSQLiteJsonCallbacks() {
+    }
+
+    /**
+     * Registers the target of an import or export, which stays reachable until it is unregistered.
+     *
+     * @param target A StreamReader, StreamWriter or ProgressListener
+     * @return The id to pass as context, see {@link #getContext(long)}
+     */
+    static long register(Object target) {
+        long id = nextId.getAndIncrement();
+        targets.put(id, target);
+        return id;
+    }
+
+    static void unregister(long id) {
+        targets.remove(id);
+    }
+
+    static Pointer getContext(long id) {
+        return new StaticPointer(id);
+    }
+
+    /**
+     * Reads the chunks of a streaming import from an InputStream.
+     */
+    static final class StreamReader {
+        private final InputStream stream;
+        private byte[] chunk;
+        private IOException exception;
+
+        StreamReader(InputStream stream) {
+            this.stream = stream;
+        }
+
+        int read(BytePointer buffer, int capacity) {
+            if (chunk == null || chunk.length < capacity) {
+                chunk = new byte[capacity];
+            }
+            try {
+                int length = stream.read(chunk, 0, capacity);
+                if (length <= 0) {
+                    return 0;
+                }
+                buffer.put(chunk, 0, length);
+                return length;
+            } catch (IOException e) {
+                exception = e;
+                return -1;
+            }
+        }
+
+        IOException getException() {
+            return exception;
+        }
+    }
+
+    /**
+     * Writes the chunks of an export to an OutputStream.
+     */
+    static final class StreamWriter {
+        private final OutputStream stream;
+        private byte[] chunk;
+        private IOException exception;
+
+        StreamWriter(OutputStream stream) {
+            this.stream = stream;
+        }
+
+        int write(BytePointer buffer, int size) {
+            if (chunk == null || chunk.length < size) {
+                chunk = new byte[size];
+            }
+            buffer.get(chunk, 0, size);
+            try {
+                stream.write(chunk, 0, size);
+                return 0;
+            } catch (IOException e) {
+                exception = e;
+                return -1;
+            }
+        }
+
+        IOException getException() {
+            return exception;
+        }
+    }
+}
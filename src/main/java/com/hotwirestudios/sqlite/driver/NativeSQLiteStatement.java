@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Dictionary;
 import java.util.Hashtable;
@@ -39,8 +40,13 @@ public class NativeSQLiteStatement implements SQLiteStatement, SQLiteRow {
 
     private final SQLiteNative.StatementHandle handle;
     private final SQLiteResultHandler resultHandler;
+    private final SlowQueryLog slowQueryLog;
+    private final ScanReport scanReport;
     private Dictionary<String, Integer> columns;
     private boolean finished = false;
+    // Only tracked while the slow query log is enabled
+    private long executionNanos;
+    private int[] parameterTypes;
 
     public static List<String> splitStatements(String sql) {
         List<String> result = new ArrayList<>();
@@ -54,8 +60,14 @@ public class NativeSQLiteStatement implements SQLiteStatement, SQLiteRow {
     }
 
     public NativeSQLiteStatement(SQLiteNative.StatementHandle handle, @NonNull SQLiteResultHandler resultHandler) {
+        this(handle, resultHandler, null, null);
+    }
+
+    NativeSQLiteStatement(SQLiteNative.StatementHandle handle, @NonNull SQLiteResultHandler resultHandler, @Nullable SlowQueryLog slowQueryLog, @Nullable ScanReport scanReport) {
         this.handle = handle;
         this.resultHandler = resultHandler;
+        this.slowQueryLog = slowQueryLog;
+        this.scanReport = scanReport;
     }
 
     @Override
@@ -69,7 +81,8 @@ public class NativeSQLiteStatement implements SQLiteStatement, SQLiteRow {
 
     @Override
     public void step() throws SQLiteException {
-        @SQLiteResult int result = SQLiteNative.sqlite3_step(handle);
+        @SQLiteResult int result = stepTimed();
+        completeExecution();
         resultHandler.handleResultCode(result, SQLiteNative.RESULT_DONE);
     }
 
@@ -79,17 +92,36 @@ public class NativeSQLiteStatement implements SQLiteStatement, SQLiteRow {
             return;
         }
 
-        // Ignore errors for finalize, because finalize repeats error codes of the most recent function call
-        SQLiteNative.sqlite3_finalize(handle);
-        finished = true;
-        columns = null;
+        try {
+            completeExecution();
+            if (scanReport != null) {
+                scanReport.check(handle);
+            }
+        } finally {
+            // Ignore errors for finalize, because finalize repeats error codes of the most recent function call
+            SQLiteNative.sqlite3_finalize(handle);
+            finished = true;
+            columns = null;
+        }
+    }
+
+    @Override
+    public StatementStatus getStatus(boolean reset) {
+        if (finished) {
+            throw new IllegalStateException("The statement has been finished");
+        }
+        return new StatementStatus(handle, reset);
     }
 
     @Override
     public void resetAndClearBindings() throws SQLiteException {
+        completeExecution();
         // Ignore errors, because the error code of the last sqlite3_step will be repeated, if there was an error
         SQLiteNative.sqlite3_reset(handle);
         SQLiteNative.sqlite3_clear_bindings(handle);
+        if (parameterTypes != null) {
+            Arrays.fill(parameterTypes, 0);
+        }
     }
 
     @Override
@@ -171,7 +203,7 @@ public class NativeSQLiteStatement implements SQLiteStatement, SQLiteRow {
             return null;
         }
 
-        @SQLiteResult int result = SQLiteNative.sqlite3_step(handle);
+        @SQLiteResult int result = stepTimed();
         while (result == SQLiteNative.RESULT_ROW) {
             if (callback.shouldCancel()) {
                 return null;
@@ -181,9 +213,9 @@ public class NativeSQLiteStatement implements SQLiteStatement, SQLiteRow {
             if (rowResult != null) {
                 return rowResult;
             }
-            //noinspection WrongConstant
-            result = SQLiteNative.sqlite3_step(handle);
+            result = stepTimed();
         }
+        completeExecution();
         if (result != SQLiteNative.RESULT_DONE) {
             resultHandler.throwExceptionWithCode(result);
         }
@@ -224,6 +256,73 @@ public class NativeSQLiteStatement implements SQLiteStatement, SQLiteRow {
         return result;
     }
 
+    @SQLiteResult
+    private int stepTimed() {
+        if (slowQueryLog == null) {
+            //noinspection WrongConstant
+            return SQLiteNative.sqlite3_step(handle);
+        }
+
+        long start = System.nanoTime();
+        @SQLiteResult int result = SQLiteNative.sqlite3_step(handle);
+        executionNanos += System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Passes the execution to the slow query log once it has been stepped to the end, reset or finished.
+     */
+    private void completeExecution() {
+        if (slowQueryLog == null || executionNanos == 0) {
+            return;
+        }
+
+        long durationNanos = executionNanos;
+        executionNanos = 0;
+        if (slowQueryLog.isSlow(durationNanos)) {
+            slowQueryLog.record(SQLiteNative.sqlite3_sql(handle), durationNanos, getParameters());
+        }
+    }
+
+    private List<String> getParameters() {
+        int count = SQLiteNative.sqlite3_bind_parameter_count(handle);
+        List<String> parameters = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            String name = SQLiteNative.sqlite3_bind_parameter_name(handle, i);
+            int type = parameterTypes != null && i < parameterTypes.length ? parameterTypes[i] : NULL;
+            parameters.add((name != null ? name : "?" + i) + " " + getTypeName(type));
+        }
+        return parameters;
+    }
+
+    private void recordParameterType(int index, @SQLiteType int type) {
+        if (slowQueryLog == null) {
+            return;
+        }
+
+        if (parameterTypes == null) {
+            parameterTypes = new int[SQLiteNative.sqlite3_bind_parameter_count(handle) + 1];
+        }
+        if (index > 0 && index < parameterTypes.length) {
+            parameterTypes[index] = type;
+        }
+    }
+
+    private static String getTypeName(int type) {
+        switch (type) {
+            case INTEGER:
+                return "INTEGER";
+            case FLOAT:
+                return "REAL";
+            case TEXT:
+                return "TEXT";
+            case BLOB:
+                return "BLOB";
+            default:
+                return "NULL";
+        }
+    }
+
     private int getColumnIndex(String name) throws IndexOutOfBoundsException {
         Integer index = columns.get(name);
         if (index == null) {
@@ -297,6 +396,10 @@ public class NativeSQLiteStatement implements SQLiteStatement, SQLiteRow {
         return SQLiteNative.sqlite3_column_text(handle, index);
     }
 
+    SQLiteNative.StatementHandle getHandle() {
+        return handle;
+    }
+
     @Override
     public void close() throws IOException {
         if (!finished) {
@@ -323,12 +426,18 @@ public class NativeSQLiteStatement implements SQLiteStatement, SQLiteRow {
         public void to(int parameterIndex) throws SQLiteException {
             @SQLiteResult int result = SQLiteNative.sqlite3_bind_null(handle, parameterIndex);
             resultHandler.handleResultCode(result, SQLiteNative.RESULT_OK);
+            recordParameterType(parameterIndex, NULL);
         }
     }
 
     private abstract class ValueBinder<T> implements BindableValue {
+        private final @SQLiteType int type;
         private T value;
 
+        ValueBinder(@SQLiteType int type) {
+            this.type = type;
+        }
+
         protected void setValue(T value) {
             this.value = value;
         }
@@ -342,6 +451,7 @@ public class NativeSQLiteStatement implements SQLiteStatement, SQLiteRow {
         public void to(int parameterIndex) throws SQLiteException {
             @SQLiteResult int result = bind(value, parameterIndex);
             resultHandler.handleResultCode(result, SQLiteNative.RESULT_OK);
+            recordParameterType(parameterIndex, type);
         }
 
         @SQLiteResult
@@ -359,6 +469,10 @@ public class NativeSQLiteStatement implements SQLiteStatement, SQLiteRow {
     }
 
     private class IntegerBinder extends ValueBinder<Integer> {
+        IntegerBinder() {
+            super(INTEGER);
+        }
+
         @Override
         protected int bind(Integer value, int index) {
             return SQLiteNative.sqlite3_bind_int(handle, index, value);
@@ -376,6 +490,10 @@ public class NativeSQLiteStatement implements SQLiteStatement, SQLiteRow {
     }
 
     private class LongBinder extends ValueBinder<Long> {
+        LongBinder() {
+            super(INTEGER);
+        }
+
         @Override
         protected int bind(Long value, int index) {
             return SQLiteNative.sqlite3_bind_int64(handle, index, value);
@@ -393,6 +511,10 @@ public class NativeSQLiteStatement implements SQLiteStatement, SQLiteRow {
     }
 
     private class DateBinder extends ValueBinder<Date> {
+        DateBinder() {
+            super(INTEGER);
+        }
+
         @Override
         protected int bind(Date value, int index) {
             return SQLiteNative.sqlite3_bind_int64(handle, index, value.getTime());
@@ -410,6 +532,10 @@ public class NativeSQLiteStatement implements SQLiteStatement, SQLiteRow {
     }
 
     private class StringBinder extends ValueBinder<String> {
+        StringBinder() {
+            super(TEXT);
+        }
+
         @Override
         protected int bind(String value, int index) {
             return SQLiteNative.sqlite3_bind_text(handle, index, value, -1, SQLiteNative.SQLITE_TRANSIENT);
@@ -427,6 +553,10 @@ public class NativeSQLiteStatement implements SQLiteStatement, SQLiteRow {
     }
 
     private class BooleanBinder extends ValueBinder<Boolean> {
+        BooleanBinder() {
+            super(INTEGER);
+        }
+
         @Override
         protected int bind(Boolean value, int index) {
             return SQLiteNative.sqlite3_bind_int(handle, index, value ? 1 : 0);
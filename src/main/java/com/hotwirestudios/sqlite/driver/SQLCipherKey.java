@@ -0,0 +1,100 @@
+package com.hotwirestudios.sqlite.driver;
+
+import android.support.annotation.NonNull;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The key of an encrypted database.
+ * Passphrases are run through SQLCipher's key derivation (PBKDF2) on every open, which is slow by design.
+ * Raw keys are used as they are and skip the key derivation, so opening a connection is considerably faster. Keep them in secure storage (e.g. the Android Keystore).
+ */
+public final class SQLCipherKey {
+    public static final int RAW_KEY_LENGTH = 32;
+    public static final int SALT_LENGTH = 16;
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final byte[] keyBytes;
+    private final boolean raw;
+
+    private SQLCipherKey(byte[] keyBytes, boolean raw) {
+        this.keyBytes = keyBytes;
+        this.raw = raw;
+    }
+
+    /**
+     * Creates a key which is derived from the provided passphrase.
+     *
+     * @param passphrase The passphrase
+     * @return The key
+     */
+    public static SQLCipherKey fromPassphrase(@NonNull String passphrase) {
+        return new SQLCipherKey(passphrase.getBytes(Charset.forName("utf-8")), false);
+    }
+
+    /**
+     * Creates a raw 256 bit key, which skips the key derivation. The database salt is read from the database file.
+     *
+     * @param key The 32 byte key
+     * @return The key
+     */
+    public static SQLCipherKey fromRawKey(@NonNull byte[] key) {
+        return fromRawKey(key, null);
+    }
+
+    /**
+     * Creates a raw 256 bit key with an explicit database salt, which skips the key derivation.
+     *
+     * @param key  The 32 byte key
+     * @param salt The 16 byte salt or null to read the salt from the database file
+     * @return The key
+     */
+    public static SQLCipherKey fromRawKey(@NonNull byte[] key, byte[] salt) {
+        if (key.length != RAW_KEY_LENGTH) {
+            throw new IllegalArgumentException("Raw keys must be " + RAW_KEY_LENGTH + " bytes long");
+        }
+        if (salt != null && salt.length != SALT_LENGTH) {
+            throw new IllegalArgumentException("Salts must be " + SALT_LENGTH + " bytes long");
+        }
+
+        // SQLCipher expects raw keys as blob literal: x'<64 hex digits>' or x'<96 hex digits>' including the salt
+        StringBuilder literal = new StringBuilder("x'");
+        appendHex(literal, key);
+        if (salt != null) {
+            appendHex(literal, salt);
+        }
+        literal.append('\'');
+        return new SQLCipherKey(literal.toString().getBytes(Charset.forName("US-ASCII")), true);
+    }
+
+    private static void appendHex(StringBuilder builder, byte[] bytes) {
+        for (byte b : bytes) {
+            builder.append(HEX_DIGITS[(b >> 4) & 0x0F]).append(HEX_DIGITS[b & 0x0F]);
+        }
+    }
+
+    /**
+     * Gets whether this is a raw key skipping the key derivation.
+     *
+     * @return true for raw keys
+     */
+    public boolean isRaw() {
+        return raw;
+    }
+
+    /**
+     * Gets the bytes to pass to sqlite3_key/sqlite3_rekey.
+     */
+    byte[] getKeyBytes() {
+        return Arrays.copyOf(keyBytes, keyBytes.length);
+    }
+
+    /**
+     * Gets the key as it is passed to ATTACH ... KEY.
+     */
+    String getKeyText() {
+        return new String(keyBytes, Charset.forName("utf-8"));
+    }
+}
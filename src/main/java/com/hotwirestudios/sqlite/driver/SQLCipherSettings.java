@@ -0,0 +1,63 @@
+package com.hotwirestudios.sqlite.driver;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Tunes the cost of encryption. Settings left null keep the SQLCipher defaults.
+ * <p>
+ * NOTE: kdfIterations and pageSize must match the values the database was created with, otherwise it cannot be read.
+ */
+public final class SQLCipherSettings {
+    public static final SQLCipherSettings DEFAULT = new SQLCipherSettings(null, null, null);
+
+    private final Integer kdfIterations;
+    private final Integer pageSize;
+    private final Boolean memorySecurity;
+
+    /**
+     * Instantiates new settings.
+     *
+     * @param kdfIterations  The number of PBKDF2 iterations for passphrase keys (PRAGMA kdf_iter). Ignored for raw keys. Lower values open faster, but make brute forcing the passphrase cheaper.
+     * @param pageSize       The page size of the encrypted database (PRAGMA cipher_page_size). Larger pages reduce the per page encryption overhead for scans.
+     * @param memorySecurity Whether SQLCipher wipes memory it frees (PRAGMA cipher_memory_security). Disabling it speeds up all operations.
+     */
+    public SQLCipherSettings(@Nullable Integer kdfIterations, @Nullable Integer pageSize, @Nullable Boolean memorySecurity) {
+        this.kdfIterations = kdfIterations;
+        this.pageSize = pageSize;
+        this.memorySecurity = memorySecurity;
+    }
+
+    @Nullable
+    public Integer getKdfIterations() {
+        return kdfIterations;
+    }
+
+    @Nullable
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    @Nullable
+    public Boolean getMemorySecurity() {
+        return memorySecurity;
+    }
+
+    /**
+     * Applies the settings to a connection. Must be called right after keying the connection, before the database is accessed.
+     *
+     * @param connection The keyed connection
+     * @param key        The key used
+     * @throws SQLiteException
+     */
+    void apply(SQLiteConnection connection, SQLCipherKey key) throws SQLiteException {
+        if (memorySecurity != null) {
+            connection.executeStatement("PRAGMA cipher_memory_security = " + (memorySecurity ? "ON" : "OFF"));
+        }
+        if (pageSize != null) {
+            connection.executeStatement("PRAGMA cipher_page_size = " + pageSize);
+        }
+        if (kdfIterations != null && !key.isRaw()) {
+            connection.executeStatement("PRAGMA kdf_iter = " + kdfIterations);
+        }
+    }
+}
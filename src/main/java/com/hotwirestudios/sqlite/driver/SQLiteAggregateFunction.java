@@ -0,0 +1,34 @@
+package com.hotwirestudios.sqlite.driver;
+
+/**
+ * A function computing a single value over a group of rows, registered using {@link SQLiteConnection#registerAggregateFunction(String, int, SQLiteAggregateFunction)}.
+ * Exceptions are reported as an error of the calling statement.
+ *
+ * @param <TState> The type holding the intermediate result of a group
+ */
+public interface SQLiteAggregateFunction<TState> {
+    /**
+     * Creates the state of a new group. Called before the first step of the group or before finish, if the group is empty.
+     *
+     * @return The new state
+     */
+    TState createState();
+
+    /**
+     * Adds a row to the group.
+     *
+     * @param state     The group state
+     * @param arguments The function arguments of the row
+     * @throws SQLiteException
+     */
+    void step(TState state, SQLiteFunctionArguments arguments) throws SQLiteException;
+
+    /**
+     * Sets the result of the group. The state is discarded afterwards.
+     *
+     * @param state  The group state
+     * @param result The function result
+     * @throws SQLiteException
+     */
+    void finish(TState state, SQLiteFunctionResult result) throws SQLiteException;
+}
@@ -1,5 +1,12 @@
 package com.hotwirestudios.sqlite.driver;
 
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
 /**
  * Represents a connection to aSQLite database
  */
@@ -31,6 +38,38 @@ public interface SQLiteConnection {
      */
     void registerFunction(String name, int numberOfArguments, SQLiteFunction function) throws SQLiteException;
 
+    /**
+     * Registers a scalar function with typed arguments and result.
+     *
+     * @param name              The name of the function to be used in SQL strings
+     * @param numberOfArguments The number of expected function arguments (-1 for any number)
+     * @param function          The function
+     * @throws SQLiteException
+     */
+    void registerScalarFunction(String name, int numberOfArguments, SQLiteScalarFunction function) throws SQLiteException;
+
+    /**
+     * Registers an aggregate function, which can be used like COUNT or SUM.
+     *
+     * @param <TState>          The type of the per-group state
+     * @param name              The name of the function to be used in SQL strings
+     * @param numberOfArguments The number of expected function arguments (-1 for any number)
+     * @param function          The function
+     * @throws SQLiteException
+     */
+    <TState> void registerAggregateFunction(String name, int numberOfArguments, SQLiteAggregateFunction<TState> function) throws SQLiteException;
+
+    /**
+     * Registers an aggregate function, which can also be used as window function (... OVER (...)).
+     *
+     * @param <TState>          The type of the per-window state
+     * @param name              The name of the function to be used in SQL strings
+     * @param numberOfArguments The number of expected function arguments (-1 for any number)
+     * @param function          The function
+     * @throws SQLiteException
+     */
+    <TState> void registerWindowFunction(String name, int numberOfArguments, SQLiteWindowFunction<TState> function) throws SQLiteException;
+
     /**
      * Gets the most recently inserted row id - actually meaning the sqlite3 row id, which is only equal to your primary key, if the table has a INTEGER NOT NULL PRIMARY KEY column.
      *
@@ -50,8 +89,145 @@ public interface SQLiteConnection {
      * Bulk imports JSON into the database. See: https://github.com/hotwirestudios/android-sqlite-native-driver for the expected format.
      *
      * @param json                The JSON string
-     * @param primaryKeysCallback A callback telling the native code which columns should be treated as primary keys (for checking whether to update, delete or insert data)
+     * @param primaryKeysCallback A callback telling the native code which columns should be treated as primary keys (for checking whether to update, delete or insert data). If null, the primary keys declared by the tables are used.
+     * @throws SQLiteException
+     */
+    void importJson(String json, @Nullable PrimaryKeysCallbackFunction primaryKeysCallback) throws SQLiteException;
+
+    /**
+     * Bulk imports JSON into the database. See: https://github.com/hotwirestudios/android-sqlite-native-driver for the expected format.
+     *
+     * @param json    The JSON string
+     * @param options The options of the import
+     * @throws SQLiteException
+     */
+    void importJson(String json, JsonImportOptions options) throws SQLiteException;
+
+    /**
+     * Bulk imports JSON from a stream into the database. Rows are written while the JSON is parsed, so memory usage does not depend on the size of the payload.
+     * Within each table object, "table" and "columns" must precede "values".
+     *
+     * @param stream              The JSON stream - it is not closed
+     * @param primaryKeysCallback A callback telling the native code which columns should be treated as primary keys. If null, the primary keys declared by the tables are used.
+     * @throws SQLiteException
+     */
+    void importJson(InputStream stream, @Nullable PrimaryKeysCallbackFunction primaryKeysCallback) throws SQLiteException;
+
+    /**
+     * Bulk imports JSON from a stream into the database. See {@link #importJson(InputStream, PrimaryKeysCallbackFunction)}.
+     *
+     * @param stream  The JSON stream - it is not closed
+     * @param options The options of the import
      * @throws SQLiteException
      */
-    void importJson(String json, PrimaryKeysCallbackFunction primaryKeysCallback) throws SQLiteException;
+    void importJson(InputStream stream, JsonImportOptions options) throws SQLiteException;
+
+    /**
+     * Bulk imports JSON from a file into the database. The file is memory mapped read-only and parsed from the mapping, so its contents are never copied into Java.
+     * See {@link #importJson(InputStream, PrimaryKeysCallbackFunction)}.
+     *
+     * @param path                The full qualified path of the JSON file
+     * @param primaryKeysCallback A callback telling the native code which columns should be treated as primary keys. If null, the primary keys declared by the tables are used.
+     * @throws SQLiteException
+     */
+    void importJsonFile(String path, @Nullable PrimaryKeysCallbackFunction primaryKeysCallback) throws SQLiteException;
+
+    /**
+     * Bulk imports JSON from a file into the database. See {@link #importJsonFile(String, PrimaryKeysCallbackFunction)}.
+     *
+     * @param path    The full qualified path of the JSON file
+     * @param options The options of the import
+     * @throws SQLiteException
+     */
+    void importJsonFile(String path, JsonImportOptions options) throws SQLiteException;
+
+    /**
+     * Bulk imports JSON from an open file descriptor (e.g. ParcelFileDescriptor.getFd()) into the database, starting at its current position.
+     * Regular files are memory mapped like in {@link #importJsonFile(String, PrimaryKeysCallbackFunction)}, other descriptors (e.g. pipes) are read sequentially.
+     *
+     * @param fd                  The file descriptor - it is not closed
+     * @param primaryKeysCallback A callback telling the native code which columns should be treated as primary keys. If null, the primary keys declared by the tables are used.
+     * @throws SQLiteException
+     */
+    void importJsonFileDescriptor(int fd, @Nullable PrimaryKeysCallbackFunction primaryKeysCallback) throws SQLiteException;
+
+    /**
+     * Bulk imports JSON from an open file descriptor into the database. See {@link #importJsonFileDescriptor(int, PrimaryKeysCallbackFunction)}.
+     *
+     * @param fd      The file descriptor - it is not closed
+     * @param options The options of the import
+     * @throws SQLiteException
+     */
+    void importJsonFileDescriptor(int fd, JsonImportOptions options) throws SQLiteException;
+
+    /**
+     * Exports the result of a query as JSON, in the format read by {@link #importJson(InputStream, PrimaryKeysCallbackFunction)}. Rows are written while the query is stepped.
+     * The exported table is the one the first result column belongs to, so the query must not start with an expression.
+     *
+     * @param sql      The query
+     * @param bindings Binds the parameters of the query (null if there are none)
+     * @param stream   The stream the JSON is written to - it is neither flushed nor closed
+     * @throws SQLiteException
+     */
+    void exportJson(String sql, @Nullable SQLiteStatement.Bindings bindings, OutputStream stream) throws SQLiteException;
+
+    /**
+     * Exports the result of a query as JSON file. See {@link #exportJson(String, SQLiteStatement.Bindings, OutputStream)}.
+     * An existing file is replaced. If the export fails, the file is deleted.
+     *
+     * @param sql      The query
+     * @param bindings Binds the parameters of the query (null if there are none)
+     * @param path     The full qualified path of the JSON file
+     * @throws SQLiteException
+     */
+    void exportJsonFile(String sql, @Nullable SQLiteStatement.Bindings bindings, String path) throws SQLiteException;
+
+    /**
+     * Records the statements whose execution takes longer than the threshold, along with the types of their parameters and their query plan.
+     * Only the time spent in SQLite is measured, not the time spent reading rows. Statements created before are not logged.
+     *
+     * @param thresholdMillis The minimum duration of a logged execution
+     * @param capacity        The maximum number of records, older records are discarded
+     */
+    void enableSlowQueryLog(long thresholdMillis, int capacity);
+
+    /**
+     * Stops recording slow queries and discards the records.
+     */
+    void disableSlowQueryLog();
+
+    /**
+     * Gets the recorded slow queries. May be called from any thread.
+     *
+     * @param clear If true, the records are removed
+     * @return The slow queries, oldest first (empty, if the log is disabled)
+     */
+    List<SlowQuery> getSlowQueries(boolean clear);
+
+    /**
+     * Debug mode for testing: when a statement is finished, its counters are read (sqlite3_stmt_status) and the statement is reported,
+     * if it stepped through more rows in full scans or inserted more rows into automatic indexes than the threshold. Statements created before are not checked.
+     *
+     * @param threshold The maximum number of full scan steps and automatic index rows, which are not reported
+     * @param reporter  Called on the thread finishing the statement
+     */
+    void enableScanReport(int threshold, @NonNull ScanReporter reporter);
+
+    /**
+     * Stops reporting scans of statements created afterwards.
+     */
+    void disableScanReport();
+
+    /**
+     * Receives statements found by {@link #enableScanReport(int, ScanReporter)}.
+     */
+    interface ScanReporter {
+        /**
+         * Called when a statement exceeding the threshold is finished. Exceptions are passed to the caller of {@link SQLiteStatement#finish()}, so tests may fail right away.
+         *
+         * @param sql    The SQL of the statement
+         * @param status The counters of the statement
+         */
+        void onScan(String sql, StatementStatus status);
+    }
 }
@@ -0,0 +1,71 @@
+package com.hotwirestudios.sqlite.driver;
+
+/**
+ * Allows typed access to the arguments of a function call.
+ * The arguments are only valid for the duration of the call, so don't keep a reference to this object.
+ */
+public interface SQLiteFunctionArguments {
+    /**
+     * Gets the number of arguments.
+     *
+     * @return The number of arguments
+     */
+    int getCount();
+
+    /**
+     * Gets the SQLite type of the provided argument.
+     *
+     * @param index The argument index
+     * @return The type
+     */
+    @NativeSQLiteStatement.SQLiteType
+    int getType(int index);
+
+    /**
+     * Determines whether the provided argument is NULL.
+     *
+     * @param index The argument index
+     * @return true, if the argument is NULL
+     */
+    boolean isNull(int index);
+
+    /**
+     * Gets the provided argument as an int.
+     *
+     * @param index The argument index
+     * @return The int value (0 for NULL)
+     */
+    int getInt(int index);
+
+    /**
+     * Gets the provided argument as a long.
+     *
+     * @param index The argument index
+     * @return The long value (0 for NULL)
+     */
+    long getLong(int index);
+
+    /**
+     * Gets the provided argument as a double.
+     *
+     * @param index The argument index
+     * @return The double value (0.0 for NULL)
+     */
+    double getDouble(int index);
+
+    /**
+     * Gets the provided argument as a String.
+     *
+     * @param index The argument index
+     * @return The String value or null
+     */
+    String getText(int index);
+
+    /**
+     * Gets the provided argument as a byte array.
+     *
+     * @param index The argument index
+     * @return The blob value or null
+     */
+    byte[] getBlob(int index);
+}
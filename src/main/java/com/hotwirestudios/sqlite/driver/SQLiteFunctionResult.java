@@ -0,0 +1,31 @@
+package com.hotwirestudios.sqlite.driver;
+
+/**
+ * Sets the result of a function call. If none of the setters is called, the result is NULL.
+ */
+public interface SQLiteFunctionResult {
+    void setNull();
+
+    void setInt(int value);
+
+    void setLong(long value);
+
+    void setDouble(double value);
+
+    /**
+     * @param value The String value - null results in NULL
+     */
+    void setText(String value);
+
+    /**
+     * @param value The blob value - null results in NULL
+     */
+    void setBlob(byte[] value);
+
+    /**
+     * Makes the calling statement fail with the provided message.
+     *
+     * @param message The error message
+     */
+    void setError(String message);
+}
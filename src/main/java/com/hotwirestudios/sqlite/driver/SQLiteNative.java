@@ -8,19 +8,20 @@ import org.bytedeco.javacpp.IntPointer;
 import org.bytedeco.javacpp.Loader;
 import org.bytedeco.javacpp.Pointer;
 import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.javacpp.SizeTPointer;
 import org.bytedeco.javacpp.annotation.ByPtrPtr;
 import org.bytedeco.javacpp.annotation.Cast;
+import org.bytedeco.javacpp.annotation.Const;
+import org.bytedeco.javacpp.annotation.MemberGetter;
 import org.bytedeco.javacpp.annotation.Name;
 import org.bytedeco.javacpp.annotation.Opaque;
 import org.bytedeco.javacpp.annotation.Platform;
 
-import java.nio.charset.Charset;
-
 /**
  * Created by FabianM on 14.06.16.
  */
 @SuppressWarnings({"WeakerAccess", "SameParameterValue", "unused"})
-@Platform(include = "sqlite-rapidjson.h", link = {"sqlite-native-driver"})
+@Platform(include = {"sqlite-rapidjson.h", "sqlite-diacritic.h", "sqlite-profiler.h"}, link = {"sqlite-native-driver"})
 public class SQLiteNative {
     private static final String TAG = "SQLITE_NATIVE";
 
@@ -82,6 +83,31 @@ public class SQLiteNative {
     static final int SQLITE_ANY = 5;
     static final int SQLITE_UTF16_ALIGNED = 8;
 
+    static final int SQLITE_DBSTATUS_LOOKASIDE_USED = 0;
+    static final int SQLITE_DBSTATUS_CACHE_USED = 1;
+    static final int SQLITE_DBSTATUS_SCHEMA_USED = 2;
+    static final int SQLITE_DBSTATUS_STMT_USED = 3;
+    static final int SQLITE_DBSTATUS_LOOKASIDE_HIT = 4;
+    static final int SQLITE_DBSTATUS_LOOKASIDE_MISS_SIZE = 5;
+    static final int SQLITE_DBSTATUS_LOOKASIDE_MISS_FULL = 6;
+    static final int SQLITE_DBSTATUS_CACHE_HIT = 7;
+    static final int SQLITE_DBSTATUS_CACHE_MISS = 8;
+    static final int SQLITE_DBSTATUS_CACHE_WRITE = 9;
+    static final int SQLITE_DBSTATUS_CACHE_SPILL = 12;
+
+    static final int SQLITE_STMTSTATUS_FULLSCAN_STEP = 1;
+    static final int SQLITE_STMTSTATUS_SORT = 2;
+    static final int SQLITE_STMTSTATUS_AUTOINDEX = 3;
+    static final int SQLITE_STMTSTATUS_VM_STEP = 4;
+    static final int SQLITE_STMTSTATUS_REPREPARE = 5;
+    static final int SQLITE_STMTSTATUS_RUN = 6;
+    static final int SQLITE_STMTSTATUS_MEMUSED = 99;
+
+    static final int SQLITE_STATUS_MEMORY_USED = 0;
+    static final int SQLITE_STATUS_PAGECACHE_OVERFLOW = 2;
+    static final int SQLITE_STATUS_MALLOC_SIZE = 5;
+    static final int SQLITE_STATUS_MALLOC_COUNT = 9;
+
     @Opaque
     @Name("sqlite3")
     static class ConnectionHandle extends Pointer {
@@ -142,32 +168,13 @@ public class SQLiteNative {
                 return;
             }
 
-            if (sqlite3_create_collation(connection, collationName, eTextRep, null, new CollationCallback()) != RESULT_OK) {
+            // The comparison itself runs natively, so sorting does not call back into Java
+            if (sqlite_register_diacritic_collation(connection, collationName) != RESULT_OK) {
                 Log.w(TAG, "Could not auto-register " + collationName + " collation!");
             }
         }
     }
 
-    static class CollationCallback extends FunctionPointer {
-        static {
-            Loader.load();
-        }
-
-        protected CollationCallback() {
-            allocate();
-        }
-
-        private native void allocate();
-
-        public int call(@SuppressWarnings("UnusedParameters") Pointer arg, int i, @Cast("const void *") final BytePointer left, int j, @Cast("const void *") BytePointer right) {
-            byte[] leftBytes = left == null ? new byte[0] : left.getStringBytes();
-            String l = new String(leftBytes, 0, i, Charset.forName("UTF-8"));
-            byte[] rightBytes = right == null ? new byte[0] : right.getStringBytes();
-            String r = new String(rightBytes, 0, j, Charset.forName("UTF-8"));
-            return l.compareToIgnoreCase(r);
-        }
-    }
-
     @Opaque
     @Name("sqlite3_value")
     public static class ValueHandle extends Pointer {
@@ -188,6 +195,14 @@ public class SQLiteNative {
         public ValueHandle(Pointer p) {
             super(p);
         }
+
+        /**
+         * Points this handle to another sqlite3_value, so a single handle can be reused for all arguments of a function call.
+         */
+        ValueHandle reset(long address) {
+            this.address = address;
+            return this;
+        }
     }
 
     @Opaque
@@ -231,6 +246,131 @@ public class SQLiteNative {
         }
     }
 
+    /**
+     * Receives the arguments of a scalar function call or an aggregate/window step.
+     */
+    interface ValuesHandler {
+        void call(ContextHandle context, int argc, SizeTPointer argv);
+    }
+
+    /**
+     * Receives the final and value calls of aggregate and window functions.
+     */
+    interface ContextHandler {
+        void call(ContextHandle context);
+    }
+
+    /**
+     * Typed counterpart of FunctionCallback. argv is read as an array of addresses, so arguments can be accessed without allocating a handle per value.
+     * JavaCPP keeps a single native instance per callback class, so each role of a function has its own class, see {@link NativeSQLiteFunctionRegistry}.
+     */
+    static class ScalarCallback extends FunctionPointer {
+        static {
+            Loader.load();
+        }
+
+        private final ValuesHandler handler;
+
+        protected ScalarCallback(ValuesHandler handler) {
+            this.handler = handler;
+            allocate();
+        }
+
+        private native void allocate();
+
+        public void call(ContextHandle context, int argc, @Cast("sqlite3_value **") SizeTPointer argv) {
+            handler.call(context, argc, argv);
+        }
+    }
+
+    /**
+     * xStep of aggregate and window functions.
+     */
+    static class AggregateStepCallback extends FunctionPointer {
+        static {
+            Loader.load();
+        }
+
+        private final ValuesHandler handler;
+
+        protected AggregateStepCallback(ValuesHandler handler) {
+            this.handler = handler;
+            allocate();
+        }
+
+        private native void allocate();
+
+        public void call(ContextHandle context, int argc, @Cast("sqlite3_value **") SizeTPointer argv) {
+            handler.call(context, argc, argv);
+        }
+    }
+
+    /**
+     * xFinal of aggregate and window functions.
+     */
+    static class AggregateFinalCallback extends FunctionPointer {
+        static {
+            Loader.load();
+        }
+
+        private final ContextHandler handler;
+
+        protected AggregateFinalCallback(ContextHandler handler) {
+            this.handler = handler;
+            allocate();
+        }
+
+        private native void allocate();
+
+        public void call(ContextHandle context) {
+            handler.call(context);
+        }
+    }
+
+    /**
+     * xValue of window functions.
+     */
+    static class WindowValueCallback extends FunctionPointer {
+        static {
+            Loader.load();
+        }
+
+        private final ContextHandler handler;
+
+        protected WindowValueCallback(ContextHandler handler) {
+            this.handler = handler;
+            allocate();
+        }
+
+        private native void allocate();
+
+        public void call(ContextHandle context) {
+            handler.call(context);
+        }
+    }
+
+    /**
+     * xInverse of window functions.
+     */
+    static class WindowInverseCallback extends FunctionPointer {
+        static {
+            Loader.load();
+        }
+
+        private final ValuesHandler handler;
+
+        protected WindowInverseCallback(ValuesHandler handler) {
+            this.handler = handler;
+            allocate();
+        }
+
+        private native void allocate();
+
+        public void call(ContextHandle context, int argc, @Cast("sqlite3_value **") SizeTPointer argv) {
+            handler.call(context, argc, argv);
+        }
+    }
+
     static class PrimaryKeysCallback extends FunctionPointer {
         static {
             Loader.load();
@@ -254,18 +394,255 @@ public class SQLiteNative {
         }
     }
 
-    abstract static class FinalCallback extends FunctionPointer {
+    /**
+     * Receives the reads of a streaming JSON import.
+     */
+    interface ReadHandler {
+        int read(Pointer context, BytePointer buffer, int capacity);
+    }
+
+    /**
+     * Feeds a streaming JSON import with chunks of an InputStream.
+     * JavaCPP keeps a single native instance per callback class, so there is only one, which looks up the stream by the context of the import, see {@link NativeSQLiteJsonCallbacks}.
+     */
+    static class ReadCallback extends FunctionPointer {
+        static {
+            Loader.load();
+        }
+
+        private final ReadHandler handler;
+
+        protected ReadCallback(ReadHandler handler) {
+            this.handler = handler;
+            allocate();
+        }
+
+        private native void allocate();
+
+        public int call(@Cast("void *") Pointer context, @Cast("char *") BytePointer buffer, int capacity) {
+            return handler.read(context, buffer, capacity);
+        }
+    }
+
+    /**
+     * Receives the writes of a JSON export.
+     */
+    interface WriteHandler {
+        int write(Pointer context, BytePointer buffer, int size);
+    }
+
+    /**
+     * Passes the chunks of a JSON export to an OutputStream. Like {@link ReadCallback}, there is a single instance, which looks up the stream by the context of the export.
+     */
+    static class WriteCallback extends FunctionPointer {
+        static {
+            Loader.load();
+        }
+
+        private final WriteHandler handler;
+
+        protected WriteCallback(WriteHandler handler) {
+            this.handler = handler;
+            allocate();
+        }
+
+        private native void allocate();
+
+        public int call(@Cast("void *") Pointer context, @Cast("const char *") BytePointer buffer, int size) {
+            return handler.write(context, buffer, size);
+        }
+    }
+
+    @Name("sqlite_import_options")
+    static class ImportOptions extends Pointer {
+        static {
+            Loader.load();
+        }
+
+        public ImportOptions() {
+            super((Pointer) null);
+            allocate();
+        }
+
+        private native void allocate();
+
+        public native PrimaryKeysCallback primary_keys();
+
+        public native ImportOptions primary_keys(PrimaryKeysCallback primaryKeys);
+
+        public native ImportCache cache();
+
+        public native ImportOptions cache(ImportCache cache);
+
+        public native int merge_strategy();
+
+        public native ImportOptions merge_strategy(int mergeStrategy);
+
+        public native ProgressCallback progress();
+
+        public native ImportOptions progress(ProgressCallback progress);
+
+        public native Pointer progress_context();
+
+        public native ImportOptions progress_context(Pointer progressContext);
+
+        public native int progress_interval();
+
+        public native ImportOptions progress_interval(int progressInterval);
+
+        public native int commit_rows();
+
+        public native ImportOptions commit_rows(int commitRows);
+
+        public native @Cast("sqlite3_int64") long commit_bytes();
+
+        public native ImportOptions commit_bytes(long commitBytes);
+
+        public native int checkpoint();
+
+        public native ImportOptions checkpoint(int checkpoint);
+
+        public native @Cast("const char *") BytePointer resume_id();
+
+        public native ImportOptions resume_id(@Cast("const char *") BytePointer resumeId);
+
+        @MemberGetter
+        public native @Cast("const char *") BytePointer error_message();
+    }
+
+    @Name("sqlite_export_options")
+    static class ExportOptions extends Pointer {
+        static {
+            Loader.load();
+        }
+
+        public ExportOptions() {
+            super((Pointer) null);
+            allocate();
+        }
+
+        private native void allocate();
+
+        @MemberGetter
+        public native @Cast("const char *") BytePointer error_message();
+    }
+
+    @Opaque
+    @Name("sqlite_import_cache")
+    static class ImportCache extends Pointer {
+        static {
+            Loader.load();
+        }
+
+        /**
+         * Default native constructor.
+         */
+        public ImportCache() {
+            super((Pointer) null);
+        }
+    }
+
+    @Name("sqlite_import_progress")
+    static class ImportProgress extends Pointer {
+        static {
+            Loader.load();
+        }
+
+        public ImportProgress(Pointer pointer) {
+            super(pointer);
+        }
+
+        public native @Cast("const char *") BytePointer table();
+
+        public native @Cast("sqlite3_int64") long rows_processed();
+
+        public native @Cast("sqlite3_int64") long rows_inserted();
+
+        public native @Cast("sqlite3_int64") long rows_updated();
+
+        public native @Cast("sqlite3_int64") long rows_upserted();
+
+        public native @Cast("sqlite3_int64") long rows_deleted();
+
+        public native @Cast("sqlite3_int64") long rows_skipped();
+
+        public native @Cast("sqlite3_int64") long elapsed_ms();
+
+        public native int table_finished();
+    }
+
+    /**
+     * Receives the progress of an import.
+     */
+    interface ProgressHandler {
+        int call(Pointer context, ImportProgress progress);
+    }
+
+    /**
+     * Reports the progress of imports. Like {@link ReadCallback}, there is a single instance, which looks up the listener by the progress context of the options.
+     */
+    static class ProgressCallback extends FunctionPointer {
         static {
             Loader.load();
         }
 
-        protected FinalCallback() {
+        private final ProgressHandler handler;
+
+        protected ProgressCallback(ProgressHandler handler) {
+            this.handler = handler;
             allocate();
         }
 
         private native void allocate();
 
-        public abstract void call(ContextHandle context);
+        public int call(@Cast("void *") Pointer context, @Const ImportProgress progress) {
+            return handler.call(context, progress);
+        }
+    }
+
+    @Opaque
+    @Name("sqlite_profiler")
+    static class Profiler extends Pointer {
+        static {
+            Loader.load();
+        }
+
+        /**
+         * Default native constructor.
+         */
+        public Profiler() {
+            super((Pointer) null);
+        }
+    }
+
+    @Name("sqlite_profiler_entry")
+    static class ProfilerEntry extends Pointer {
+        static {
+            Loader.load();
+        }
+
+        public ProfilerEntry(long size) {
+            super((Pointer) null);
+            allocateArray(size);
+        }
+
+        private native void allocateArray(long size);
+
+        @Override
+        public ProfilerEntry position(long position) {
+            return (ProfilerEntry) super.position(position);
+        }
+
+        @MemberGetter
+        public native @Cast("const char *") BytePointer sql();
+
+        public native @Cast("sqlite3_int64") long count();
+
+        public native @Cast("sqlite3_int64") long total_ns();
+
+        public native @Cast("sqlite3_int64") long max_ns();
+
+        public native @Cast("sqlite3_int64") long histogram(int bucket);
     }
 
     static native int sqlite3_initialize();
@@ -278,6 +655,10 @@ public class SQLiteNative {
 
     static native int sqlite3_step(StatementHandle statement);
 
+    static native String sqlite3_sql(StatementHandle statement);
+
+    static native int sqlite3_stmt_status(StatementHandle statement, int op, int reset);
+
     static native int sqlite3_reset(StatementHandle statement);
 
     static native int sqlite3_clear_bindings(StatementHandle statement);
@@ -316,17 +697,83 @@ public class SQLiteNative {
 
     static native long sqlite3_last_insert_rowid(ConnectionHandle connection);
 
+    static native int sqlite3_db_status(ConnectionHandle connection, int op, int[] current, int[] highwater, int reset);
+
+    static native int sqlite3_status64(int op, @Cast("sqlite3_int64 *") long[] current, @Cast("sqlite3_int64 *") long[] highwater, int reset);
+
     static native int sqlite3_collation_needed(ConnectionHandle connection, Pointer p, CollationNeededCallback callback);
 
-    static native int sqlite3_create_collation(ConnectionHandle connection, String name, int eTextRep, Pointer arg, CollationCallback callback);
+    static native int sqlite_register_diacritic_collation(ConnectionHandle connection, String name);
+
+    static native int sqlite3_create_function(ConnectionHandle connection, String name, int nArg, int eTextRep, Pointer arg, FunctionCallback func, AggregateStepCallback step, AggregateFinalCallback fin);
+
+    static native int sqlite3_create_function(ConnectionHandle connection, String name, int nArg, int eTextRep, Pointer arg, ScalarCallback func, AggregateStepCallback step, AggregateFinalCallback fin);
+
+    static native int sqlite3_create_window_function(ConnectionHandle connection, String name, int nArg, int eTextRep, Pointer arg, AggregateStepCallback step, AggregateFinalCallback fin, WindowValueCallback value, WindowInverseCallback inverse, @Cast("void (*)(void *)") Pointer destroy);
+
+    static native @Cast("intptr_t") long sqlite3_user_data(ContextHandle context);
+
+    static native @Cast("intptr_t") long sqlite3_aggregate_context(ContextHandle context, int nBytes);
+
+    public static native int sqlite3_value_type(ValueHandle value);
+
+    public static native int sqlite3_value_int(ValueHandle value);
 
-    static native int sqlite3_create_function(ConnectionHandle connection, String name, int nArg, int eTextRep, Pointer arg, FunctionCallback func, FunctionCallback step, FinalCallback fin);
+    public static native long sqlite3_value_int64(ValueHandle value);
+
+    public static native double sqlite3_value_double(ValueHandle value);
 
     public static native String sqlite3_value_text(ValueHandle value);
 
+    public static native @Cast("const char *") BytePointer sqlite3_value_blob(ValueHandle value);
+
+    public static native int sqlite3_value_bytes(ValueHandle value);
+
+    public static native void sqlite3_result_null(ContextHandle context);
+
     public static native void sqlite3_result_int(ContextHandle context, int result);
 
+    public static native void sqlite3_result_int64(ContextHandle context, long result);
+
+    public static native void sqlite3_result_double(ContextHandle context, double result);
+
+    public static native void sqlite3_result_text(ContextHandle context, String result, int nBytes, @Cast("sqlite3_destructor_type") Pointer destructorBehavior);
+
+    public static native void sqlite3_result_blob(ContextHandle context, @Cast("const void *") byte[] result, int nBytes, @Cast("sqlite3_destructor_type") Pointer destructorBehavior);
+
+    public static native void sqlite3_result_error(ContextHandle context, String message, int nBytes);
+
     public static native int sqlite3_key(ConnectionHandle connection, @Cast("const void *") BytePointer key, int keyLength);
 
-    static native int sqlite_import_json(ConnectionHandle connection, String json, PrimaryKeysCallback primaryKeysCallback);
+    public static native int sqlite3_rekey(ConnectionHandle connection, @Cast("const void *") BytePointer key, int keyLength);
+
+    static native ImportCache sqlite_import_cache_create();
+
+    static native void sqlite_import_cache_destroy(ImportCache cache);
+
+    static native int sqlite_import_json_text(ConnectionHandle connection, String json, ImportOptions options);
+
+    static native int sqlite_import_json_file(ConnectionHandle connection, String path, ImportOptions options);
+
+    static native int sqlite_import_json_fd(ConnectionHandle connection, int fd, ImportOptions options);
+
+    static native int sqlite_import_json_stream(ConnectionHandle connection, ReadCallback read, Pointer context, ImportOptions options);
+
+    static native int sqlite_export_json_file(StatementHandle statement, String path, ExportOptions options);
+
+    static native int sqlite_export_json_stream(StatementHandle statement, WriteCallback write, Pointer context, ExportOptions options);
+
+    static native Profiler sqlite_profiler_create(int capacity);
+
+    static native void sqlite_profiler_destroy(Profiler profiler);
+
+    static native int sqlite_profiler_capacity(Profiler profiler);
+
+    static native int sqlite_profiler_attach(ConnectionHandle connection, Profiler profiler);
+
+    static native int sqlite_profiler_detach(ConnectionHandle connection);
+
+    static native int sqlite_profiler_snapshot(Profiler profiler, ProfilerEntry entries, int capacity, int reset);
+
+    static native @Cast("sqlite3_int64") long sqlite_profiler_dropped(Profiler profiler, int reset);
 }
@@ -0,0 +1,27 @@
+package com.hotwirestudios.sqlite.driver;
+
+import java.util.List;
+
+/**
+ * A snapshot of the statements executed while profiling, see {@link NativeSQLiteConnection#getProfile(boolean)}.
+ */
+public final class SQLiteProfile {
+    private final List<StatementProfile> statements;
+    private final long droppedExecutions;
+
+    SQLiteProfile(List<StatementProfile> statements, long droppedExecutions) {
+        this.statements = statements;
+        this.droppedExecutions = droppedExecutions;
+    }
+
+    public List<StatementProfile> getStatements() {
+        return statements;
+    }
+
+    /**
+     * @return The number of executions, which were not recorded because the capacity of distinct statements was exhausted
+     */
+    public long getDroppedExecutions() {
+        return droppedExecutions;
+    }
+}
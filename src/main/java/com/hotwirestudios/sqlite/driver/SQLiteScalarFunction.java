@@ -0,0 +1,15 @@
+package com.hotwirestudios.sqlite.driver;
+
+/**
+ * A function returning one value per call, registered using {@link SQLiteConnection#registerScalarFunction(String, int, SQLiteScalarFunction)}.
+ */
+public interface SQLiteScalarFunction {
+    /**
+     * Computes the function result. Exceptions are reported as an error of the calling statement.
+     *
+     * @param arguments The function arguments
+     * @param result    The function result
+     * @throws SQLiteException
+     */
+    void call(SQLiteFunctionArguments arguments, SQLiteFunctionResult result) throws SQLiteException;
+}
@@ -37,6 +37,15 @@ public interface SQLiteStatement extends Closeable {
      */
     void resetAndClearBindings() throws SQLiteException;
 
+    /**
+     * Reads the runtime counters of the statement (sqlite3_stmt_status), e.g. to find full scans, sorts or automatic indexes in tests.
+     * Must be called before the statement is finished.
+     *
+     * @param reset If true, the counters are reset
+     * @return The counters
+     */
+    StatementStatus getStatus(boolean reset);
+
     /**
      * Binds a row id to a named parameter.
      *
@@ -183,6 +192,19 @@ public interface SQLiteStatement extends Closeable {
         boolean shouldCancel();
     }
 
+    /**
+     * Binds the parameters of a statement that is prepared on behalf of the caller.
+     */
+    interface Bindings {
+        /**
+         * Binds the parameters, e.g. with {@link SQLiteStatement#bindValue(String)}.
+         *
+         * @param statement The prepared statement
+         * @throws SQLiteException
+         */
+        void bind(SQLiteStatement statement) throws SQLiteException;
+    }
+
     interface BindableValue {
         /**
          * @param parameter The named parameter
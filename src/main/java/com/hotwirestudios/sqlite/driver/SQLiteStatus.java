@@ -0,0 +1,206 @@
+package com.hotwirestudios.sqlite.driver;
+
+/**
+ * A snapshot of the page cache, lookaside and memory usage of a connection (sqlite3_db_status) and of the process (sqlite3_status64), see {@link NativeSQLiteConnection#getStatus(boolean)}.
+ * Counters (hits, misses, writes, spills) count since the connection was opened or since the last reset. Usages are current values in bytes.
+ */
+public final class SQLiteStatus {
+    private final long cacheUsed;
+    private final long cacheHits;
+    private final long cacheMisses;
+    private final long cacheWrites;
+    private final long cacheSpills;
+    private final long lookasideUsed;
+    private final long lookasideHighwater;
+    private final long lookasideHits;
+    private final long lookasideMissesSize;
+    private final long lookasideMissesFull;
+    private final long schemaUsed;
+    private final long statementsUsed;
+    private final long memoryUsed;
+    private final long memoryHighwater;
+    private final long allocationCount;
+    private final long largestAllocation;
+    private final long pageCacheOverflow;
+
+    /**
+     * Reads the status of an open connection.
+     *
+     * @param handle        The connection
+     * @param resultHandler Handles the result codes
+     * @param reset         If true, the counters of the connection and the high-water marks of the process are reset
+     * @throws SQLiteException
+     */
+    SQLiteStatus(SQLiteNative.ConnectionHandle handle, SQLiteResultHandler resultHandler, boolean reset) throws SQLiteException {
+        int[] current = new int[1];
+        int[] highwater = new int[1];
+        cacheUsed = readCurrent(handle, resultHandler, SQLiteNative.SQLITE_DBSTATUS_CACHE_USED, false, current, highwater);
+        cacheHits = readCurrent(handle, resultHandler, SQLiteNative.SQLITE_DBSTATUS_CACHE_HIT, reset, current, highwater);
+        cacheMisses = readCurrent(handle, resultHandler, SQLiteNative.SQLITE_DBSTATUS_CACHE_MISS, reset, current, highwater);
+        cacheWrites = readCurrent(handle, resultHandler, SQLiteNative.SQLITE_DBSTATUS_CACHE_WRITE, reset, current, highwater);
+        cacheSpills = readCurrent(handle, resultHandler, SQLiteNative.SQLITE_DBSTATUS_CACHE_SPILL, reset, current, highwater);
+        // The lookaside counters are reported as high-water marks
+        lookasideUsed = readCurrent(handle, resultHandler, SQLiteNative.SQLITE_DBSTATUS_LOOKASIDE_USED, reset, current, highwater);
+        lookasideHighwater = highwater[0];
+        lookasideHits = readHighwater(handle, resultHandler, SQLiteNative.SQLITE_DBSTATUS_LOOKASIDE_HIT, reset, current, highwater);
+        lookasideMissesSize = readHighwater(handle, resultHandler, SQLiteNative.SQLITE_DBSTATUS_LOOKASIDE_MISS_SIZE, reset, current, highwater);
+        lookasideMissesFull = readHighwater(handle, resultHandler, SQLiteNative.SQLITE_DBSTATUS_LOOKASIDE_MISS_FULL, reset, current, highwater);
+        schemaUsed = readCurrent(handle, resultHandler, SQLiteNative.SQLITE_DBSTATUS_SCHEMA_USED, false, current, highwater);
+        statementsUsed = readCurrent(handle, resultHandler, SQLiteNative.SQLITE_DBSTATUS_STMT_USED, false, current, highwater);
+
+        long[] current64 = new long[1];
+        long[] highwater64 = new long[1];
+        readStatus(resultHandler, SQLiteNative.SQLITE_STATUS_MEMORY_USED, reset, current64, highwater64);
+        memoryUsed = current64[0];
+        memoryHighwater = highwater64[0];
+        readStatus(resultHandler, SQLiteNative.SQLITE_STATUS_MALLOC_COUNT, false, current64, highwater64);
+        allocationCount = current64[0];
+        readStatus(resultHandler, SQLiteNative.SQLITE_STATUS_MALLOC_SIZE, reset, current64, highwater64);
+        largestAllocation = highwater64[0];
+        readStatus(resultHandler, SQLiteNative.SQLITE_STATUS_PAGECACHE_OVERFLOW, false, current64, highwater64);
+        pageCacheOverflow = current64[0];
+    }
+
+    private static long readCurrent(SQLiteNative.ConnectionHandle handle, SQLiteResultHandler resultHandler, int op, boolean reset, int[] current, int[] highwater) throws SQLiteException {
+        @SQLiteResult int result = SQLiteNative.sqlite3_db_status(handle, op, current, highwater, reset ? 1 : 0);
+        resultHandler.handleResultCode(result, SQLiteNative.RESULT_OK);
+        return current[0];
+    }
+
+    private static long readHighwater(SQLiteNative.ConnectionHandle handle, SQLiteResultHandler resultHandler, int op, boolean reset, int[] current, int[] highwater) throws SQLiteException {
+        readCurrent(handle, resultHandler, op, reset, current, highwater);
+        return highwater[0];
+    }
+
+    private static void readStatus(SQLiteResultHandler resultHandler, int op, boolean reset, long[] current, long[] highwater) throws SQLiteException {
+        @SQLiteResult int result = SQLiteNative.sqlite3_status64(op, current, highwater, reset ? 1 : 0);
+        resultHandler.handleResultCode(result, SQLiteNative.RESULT_OK);
+    }
+
+    /**
+     * @return The bytes of heap memory used by the page cache of the connection
+     */
+    public long getCacheUsed() {
+        return cacheUsed;
+    }
+
+    /**
+     * @return The number of pages found in the page cache
+     */
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * @return The number of pages read from the file, because they were not in the page cache
+     */
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * @return The number of dirty pages written to the file, including the journal
+     */
+    public long getCacheWrites() {
+        return cacheWrites;
+    }
+
+    /**
+     * @return The number of dirty pages written to the file before the transaction was committed, because the page cache was full
+     */
+    public long getCacheSpills() {
+        return cacheSpills;
+    }
+
+    /**
+     * @return The ratio of hits to page requests (0 without requests)
+     */
+    public double getCacheHitRatio() {
+        long requests = cacheHits + cacheMisses;
+        return requests == 0 ? 0 : (double) cacheHits / requests;
+    }
+
+    /**
+     * @return The number of lookaside slots in use
+     */
+    public long getLookasideUsed() {
+        return lookasideUsed;
+    }
+
+    /**
+     * @return The maximum number of lookaside slots in use
+     */
+    public long getLookasideHighwater() {
+        return lookasideHighwater;
+    }
+
+    /**
+     * @return The number of allocations served from the lookaside memory
+     */
+    public long getLookasideHits() {
+        return lookasideHits;
+    }
+
+    /**
+     * @return The number of allocations, which were too large for a lookaside slot
+     */
+    public long getLookasideMissesSize() {
+        return lookasideMissesSize;
+    }
+
+    /**
+     * @return The number of allocations, which found all lookaside slots in use
+     */
+    public long getLookasideMissesFull() {
+        return lookasideMissesFull;
+    }
+
+    /**
+     * @return The bytes of heap memory used to store the schemas of the attached databases
+     */
+    public long getSchemaUsed() {
+        return schemaUsed;
+    }
+
+    /**
+     * @return The bytes of heap and lookaside memory used by the prepared statements of the connection
+     */
+    public long getStatementsUsed() {
+        return statementsUsed;
+    }
+
+    /**
+     * @return The bytes of memory allocated by SQLite in the process, over all connections
+     */
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    /**
+     * @return The maximum of {@link #getMemoryUsed()} since the process started or the last reset
+     */
+    public long getMemoryHighwater() {
+        return memoryHighwater;
+    }
+
+    /**
+     * @return The number of allocations held by SQLite in the process
+     */
+    public long getAllocationCount() {
+        return allocationCount;
+    }
+
+    /**
+     * @return The largest allocation requested by SQLite since the process started or the last reset
+     */
+    public long getLargestAllocation() {
+        return largestAllocation;
+    }
+
+    /**
+     * @return The bytes of page cache allocations, which did not fit into the configured page cache memory and were served from the heap
+     */
+    public long getPageCacheOverflow() {
+        return pageCacheOverflow;
+    }
+}
@@ -0,0 +1,27 @@
+package com.hotwirestudios.sqlite.driver;
+
+/**
+ * An aggregate function which can also be used as window function, registered using {@link SQLiteConnection#registerWindowFunction(String, int, SQLiteWindowFunction)}.
+ * Requires a SQLCipher build based on SQLite 3.25.0 or later.
+ *
+ * @param <TState> The type holding the intermediate result of a window
+ */
+public interface SQLiteWindowFunction<TState> extends SQLiteAggregateFunction<TState> {
+    /**
+     * Removes a row, which has left the window, from the state.
+     *
+     * @param state     The window state
+     * @param arguments The function arguments of the removed row
+     * @throws SQLiteException
+     */
+    void inverse(TState state, SQLiteFunctionArguments arguments) throws SQLiteException;
+
+    /**
+     * Sets the result for the current window without discarding the state.
+     *
+     * @param state  The window state
+     * @param result The function result
+     * @throws SQLiteException
+     */
+    void value(TState state, SQLiteFunctionResult result) throws SQLiteException;
+}
@@ -0,0 +1,24 @@
+package com.hotwirestudios.sqlite.driver;
+
+/**
+ * Reports finished statements, whose full scan steps or automatic index rows exceed a threshold, see {@link SQLiteConnection#enableScanReport(int, SQLiteConnection.ScanReporter)}.
+ */
+class ScanReport {
+    private final int threshold;
+    private final SQLiteConnection.ScanReporter reporter;
+
+    ScanReport(int threshold, SQLiteConnection.ScanReporter reporter) {
+        this.threshold = threshold;
+        this.reporter = reporter;
+    }
+
+    /**
+     * Reads the counters of a statement before it is finalized and reports it, if necessary.
+     */
+    void check(SQLiteNative.StatementHandle handle) {
+        StatementStatus status = new StatementStatus(handle, false);
+        if (status.getFullScanSteps() > threshold || status.getAutoIndexRows() > threshold) {
+            reporter.onScan(SQLiteNative.sqlite3_sql(handle), status);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.hotwirestudios.sqlite.driver;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A statement, which ran longer than the threshold of the slow query log, see {@link SQLiteConnection#enableSlowQueryLog(long, int)}.
+ */
+public final class SlowQuery {
+    /**
+     * The query plan scans a table without using an index.
+     */
+    public static final int FLAG_FULL_SCAN = 1;
+    /**
+     * The query plan sorts or groups the rows in a temporary b-tree, because no index provides the order.
+     */
+    public static final int FLAG_TEMP_B_TREE = 2;
+
+    @IntDef(flag = true, value = {
+            FLAG_FULL_SCAN,
+            FLAG_TEMP_B_TREE})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface PlanFlags {
+
+    }
+
+    private final String sql;
+    private final long durationNanos;
+    private final Date date;
+    private final List<String> parameters;
+    private final List<String> queryPlan;
+    private final @PlanFlags int flags;
+
+    SlowQuery(String sql, long durationNanos, Date date, List<String> parameters, List<String> queryPlan, @PlanFlags int flags) {
+        this.sql = sql;
+        this.durationNanos = durationNanos;
+        this.date = date;
+        this.parameters = parameters;
+        this.queryPlan = queryPlan;
+        this.flags = flags;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return The time spent in sqlite3_step for the execution, excluding the time spent reading rows
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return When the execution completed
+     */
+    public Date getDate() {
+        return date;
+    }
+
+    /**
+     * @return The names and types of the bound parameters, e.g. ":id INTEGER". The values are not recorded.
+     */
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return The detail lines of EXPLAIN QUERY PLAN (empty, if the plan could not be determined)
+     */
+    public List<String> getQueryPlan() {
+        return queryPlan;
+    }
+
+    @PlanFlags
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean hasFullScan() {
+        return (flags & FLAG_FULL_SCAN) != 0;
+    }
+
+    public boolean usesTempBTree() {
+        return (flags & FLAG_TEMP_B_TREE) != 0;
+    }
+}
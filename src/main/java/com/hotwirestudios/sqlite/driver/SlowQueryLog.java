@@ -0,0 +1,95 @@
+package com.hotwirestudios.sqlite.driver;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Keeps the most recent slow queries of a connection. Records may be read from any thread.
+ */
+class SlowQueryLog {
+    private final NativeSQLiteConnection connection;
+    private final long thresholdNanos;
+    private final int capacity;
+    private final ArrayDeque<SlowQuery> queries;
+
+    SlowQueryLog(NativeSQLiteConnection connection, long thresholdNanos, int capacity) {
+        this.connection = connection;
+        this.thresholdNanos = thresholdNanos;
+        this.capacity = capacity;
+        this.queries = new ArrayDeque<>(capacity);
+    }
+
+    boolean isSlow(long durationNanos) {
+        return durationNanos >= thresholdNanos;
+    }
+
+    /**
+     * Records a statement and explains its query plan. Must be called on the thread using the connection.
+     */
+    void record(String sql, long durationNanos, List<String> parameters) {
+        List<String> queryPlan = explain(sql);
+        SlowQuery query = new SlowQuery(sql, durationNanos, new Date(), Collections.unmodifiableList(parameters),
+                Collections.unmodifiableList(queryPlan), getFlags(queryPlan));
+        synchronized (queries) {
+            if (queries.size() >= capacity) {
+                queries.removeFirst();
+            }
+            queries.addLast(query);
+        }
+    }
+
+    List<SlowQuery> getQueries(boolean clear) {
+        synchronized (queries) {
+            List<SlowQuery> result = new ArrayList<>(queries);
+            if (clear) {
+                queries.clear();
+            }
+            return result;
+        }
+    }
+
+    private List<String> explain(String sql) {
+        final List<String> details = new ArrayList<>();
+        try {
+            // Not logged itself. The plan is determined without the bound values.
+            SQLiteStatement statement = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql, null, null);
+            try {
+                statement.load(new SQLiteStatement.RowCallback() {
+                    @Override
+                    public void readRow(SQLiteRow row) throws SQLiteException {
+                        details.add(row.getText("detail"));
+                    }
+                });
+            } finally {
+                statement.finish();
+            }
+        } catch (SQLiteException e) {
+            Log.w("SQLITE", "Could not explain slow query: " + e.getMessage());
+            details.clear();
+        }
+        return details;
+    }
+
+    @SlowQuery.PlanFlags
+    static int getFlags(List<String> queryPlan) {
+        int flags = 0;
+        for (String detail : queryPlan) {
+            String upper = detail.toUpperCase(Locale.US);
+            // "SCAN TABLE t" before SQLite 3.36, "SCAN t" since. Scans of indexes, virtual tables, subqueries and constant rows do not lack an index.
+            if (upper.startsWith("SCAN ") && !upper.contains(" USING ") && !upper.contains("VIRTUAL TABLE")
+                    && !upper.contains("SUBQUERY") && !upper.contains("CONSTANT ROW")) {
+                flags |= SlowQuery.FLAG_FULL_SCAN;
+            }
+            if (upper.contains("USE TEMP B-TREE")) {
+                flags |= SlowQuery.FLAG_TEMP_B_TREE;
+            }
+        }
+        return flags;
+    }
+}
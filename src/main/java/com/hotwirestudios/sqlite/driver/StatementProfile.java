@@ -0,0 +1,76 @@
+package com.hotwirestudios.sqlite.driver;
+
+/**
+ * The aggregated runtime of a statement, see {@link NativeSQLiteConnection#startProfiling(int)}.
+ */
+public final class StatementProfile {
+    /**
+     * The number of histogram buckets. Bucket i counts runtimes from 2^i to 2^(i+1) microseconds, the first bucket also counts shorter runtimes, the last one all longer runtimes.
+     */
+    public static final int HISTOGRAM_BUCKETS = 24;
+
+    private final String sql;
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long[] histogram;
+
+    StatementProfile(String sql, long count, long totalNanos, long maxNanos, long[] histogram) {
+        this.sql = sql;
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.histogram = histogram;
+    }
+
+    /**
+     * @return The SQL with collapsed whitespace and literals replaced by ?, truncated to 255 bytes
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return The number of executions
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public long getAverageNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    /**
+     * @return A copy of the histogram, see {@link #HISTOGRAM_BUCKETS}
+     */
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    /**
+     * Estimates a percentile of the runtime by the upper bound of the histogram bucket it falls into.
+     *
+     * @param percentile The percentile, e.g. 0.95
+     * @return The estimated runtime in microseconds or Long.MAX_VALUE, if it falls into the last bucket
+     */
+    public long getPercentileMicros(double percentile) {
+        long threshold = (long) Math.ceil(count * percentile);
+        long sum = 0;
+        for (int bucket = 0; bucket < HISTOGRAM_BUCKETS - 1; bucket++) {
+            sum += histogram[bucket];
+            if (sum >= threshold) {
+                return 1L << (bucket + 1);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
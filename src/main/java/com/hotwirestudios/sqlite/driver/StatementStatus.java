@@ -0,0 +1,76 @@
+package com.hotwirestudios.sqlite.driver;
+
+/**
+ * The runtime counters of a prepared statement (sqlite3_stmt_status), see {@link SQLiteStatement#getStatus(boolean)}.
+ * The counters count all executions since the statement was prepared or since the last reset.
+ */
+public final class StatementStatus {
+    private final int fullScanSteps;
+    private final int sorts;
+    private final int autoIndexRows;
+    private final int virtualMachineSteps;
+    private final int reprepares;
+    private final int runs;
+    private final int memoryUsed;
+
+    StatementStatus(SQLiteNative.StatementHandle handle, boolean reset) {
+        int resetFlag = reset ? 1 : 0;
+        fullScanSteps = SQLiteNative.sqlite3_stmt_status(handle, SQLiteNative.SQLITE_STMTSTATUS_FULLSCAN_STEP, resetFlag);
+        sorts = SQLiteNative.sqlite3_stmt_status(handle, SQLiteNative.SQLITE_STMTSTATUS_SORT, resetFlag);
+        autoIndexRows = SQLiteNative.sqlite3_stmt_status(handle, SQLiteNative.SQLITE_STMTSTATUS_AUTOINDEX, resetFlag);
+        virtualMachineSteps = SQLiteNative.sqlite3_stmt_status(handle, SQLiteNative.SQLITE_STMTSTATUS_VM_STEP, resetFlag);
+        reprepares = SQLiteNative.sqlite3_stmt_status(handle, SQLiteNative.SQLITE_STMTSTATUS_REPREPARE, resetFlag);
+        runs = SQLiteNative.sqlite3_stmt_status(handle, SQLiteNative.SQLITE_STMTSTATUS_RUN, resetFlag);
+        // A current value, which is never reset
+        memoryUsed = SQLiteNative.sqlite3_stmt_status(handle, SQLiteNative.SQLITE_STMTSTATUS_MEMUSED, 0);
+    }
+
+    /**
+     * @return The number of times a table or index was stepped forward in a full scan. Large numbers hint at a missing index.
+     */
+    public int getFullScanSteps() {
+        return fullScanSteps;
+    }
+
+    /**
+     * @return The number of sort operations, which may be avoided by an index matching ORDER BY or GROUP BY
+     */
+    public int getSorts() {
+        return sorts;
+    }
+
+    /**
+     * @return The number of rows inserted into automatic indexes, which SQLite builds for the execution when a permanent index is missing
+     */
+    public int getAutoIndexRows() {
+        return autoIndexRows;
+    }
+
+    /**
+     * @return The number of virtual machine operations, a measure of the total work of the statement
+     */
+    public int getVirtualMachineSteps() {
+        return virtualMachineSteps;
+    }
+
+    /**
+     * @return The number of times the statement was prepared again, because the schema changed
+     */
+    public int getReprepares() {
+        return reprepares;
+    }
+
+    /**
+     * @return The number of executions, counting each run to completion or reset
+     */
+    public int getRuns() {
+        return runs;
+    }
+
+    /**
+     * @return The bytes of heap memory used by the statement
+     */
+    public int getMemoryUsed() {
+        return memoryUsed;
+    }
+}
@@ -0,0 +1,140 @@
+package com.hotwirestudios.sqlite.driver.migrations;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.hotwirestudios.sqlite.driver.DatabaseAccess;
+import com.hotwirestudios.sqlite.driver.SQLiteConnection;
+import com.hotwirestudios.sqlite.driver.SQLiteException;
+import com.hotwirestudios.sqlite.driver.SQLiteRow;
+import com.hotwirestudios.sqlite.driver.SQLiteStatement;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * Rewrites the rows of a table in batches ordered by a key, each in its own transaction.
+ * The last processed key is stored in the table migration_checkpoint along with each batch, so the migration continues where it stopped after the process was killed.
+ * Operations queued on the {@link DatabaseAccess} while the migration runs are executed between two batches.
+ */
+public abstract class BackfillMigration extends Migration {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final int batchSize;
+
+    /**
+     * Instantiates a new BackfillMigration.
+     *
+     * @param migrationId The unique migration id
+     * @param batchSize   The maximum number of rows per batch
+     */
+    protected BackfillMigration(long migrationId, int batchSize) {
+        super(migrationId);
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Overwrite this to process the next batch of rows, typically those with a key greater than lastKey ordered by the key and limited to batchSize rows.
+     *
+     * @param connection The connection, the batch runs in its own transaction
+     * @param lastKey    The last key of the previous batch (null for the first batch)
+     * @param batchSize  The maximum number of rows to process
+     * @return The last key of this batch or null, if there are no more rows
+     * @throws Exception
+     */
+    @Nullable
+    protected abstract Long processBatch(SQLiteConnection connection, @Nullable Long lastKey, int batchSize) throws Exception;
+
+    @Override
+    public boolean requiresStandaloneExecution() {
+        return true;
+    }
+
+    @Override
+    public Task<Void> executeStandalone(final DatabaseAccess databaseAccess) {
+        return databaseAccess.performThreadsafe(new DatabaseAccess.SQLiteConnectionContext<Long>() {
+            @Override
+            public Long run(@NonNull SQLiteConnection connection) throws Exception {
+                connection.executeStatement("CREATE TABLE IF NOT EXISTS migration_checkpoint (" +
+                        "id INTEGER NOT NULL PRIMARY KEY," +
+                        "last_key INTEGER NOT NULL" +
+                        ")");
+                return loadCheckpoint(connection);
+            }
+        }, false).onSuccessTask(new Continuation<Long, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Long> task) throws Exception {
+                return executeBatches(databaseAccess, task.getResult());
+            }
+        });
+    }
+
+    /**
+     * Processes all batches in the current transaction. Used if the migration is executed along with others.
+     */
+    @Override
+    protected void executeImpl(SQLiteConnection connection) throws Exception {
+        Long lastKey = null;
+        do {
+            lastKey = processBatch(connection, lastKey, batchSize);
+        } while (lastKey != null);
+    }
+
+    private Task<Void> executeBatches(final DatabaseAccess databaseAccess, @Nullable final Long lastKey) {
+        // Each batch is queued separately, so other operations can run in between
+        return databaseAccess.performThreadsafe(new DatabaseAccess.SQLiteConnectionContext<Long>() {
+            @Override
+            public Long run(@NonNull SQLiteConnection connection) throws Exception {
+                Long batchKey = processBatch(connection, lastKey, batchSize);
+                if (batchKey != null) {
+                    saveCheckpoint(connection, batchKey);
+                } else {
+                    deleteCheckpoint(connection);
+                    markCompleted(connection);
+                }
+                return batchKey;
+            }
+        }, true).onSuccessTask(new Continuation<Long, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Long> task) throws Exception {
+                if (task.getResult() == null) {
+                    return Task.forResult(null);
+                }
+                return executeBatches(databaseAccess, task.getResult());
+            }
+        });
+    }
+
+    @Nullable
+    private Long loadCheckpoint(SQLiteConnection connection) throws SQLiteException {
+        SQLiteStatement statement = connection.createStatement("SELECT last_key FROM migration_checkpoint WHERE id = :id");
+        try {
+            statement.bindId(getMigrationId()).to(":id");
+            return statement.load(new SQLiteStatement.RowValueCallback<Long>() {
+                @Override
+                public Long readRow(SQLiteRow row) throws SQLiteException {
+                    return row.getLong("last_key");
+                }
+            });
+        } finally {
+            statement.finish();
+        }
+    }
+
+    private void saveCheckpoint(SQLiteConnection connection, long lastKey) throws SQLiteException {
+        SQLiteStatement statement = connection.createStatement("INSERT OR REPLACE INTO migration_checkpoint (id, last_key) VALUES (:id, :last_key)");
+        statement.bindId(getMigrationId()).to(":id");
+        statement.bindValue(lastKey).to(":last_key");
+        statement.execute();
+    }
+
+    private void deleteCheckpoint(SQLiteConnection connection) throws SQLiteException {
+        SQLiteStatement statement = connection.createStatement("DELETE FROM migration_checkpoint WHERE id = :id");
+        statement.bindId(getMigrationId()).to(":id");
+        statement.execute();
+    }
+}
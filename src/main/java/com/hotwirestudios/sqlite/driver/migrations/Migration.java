@@ -1,5 +1,8 @@
 package com.hotwirestudios.sqlite.driver.migrations;
 
+import android.support.annotation.NonNull;
+
+import com.hotwirestudios.sqlite.driver.DatabaseAccess;
 import com.hotwirestudios.sqlite.driver.SQLiteConnection;
 import com.hotwirestudios.sqlite.driver.SQLiteException;
 import com.hotwirestudios.sqlite.driver.SQLiteRow;
@@ -8,6 +11,8 @@ import com.hotwirestudios.sqlite.driver.SQLiteStatement;
 import java.util.Date;
 import java.util.List;
 
+import bolts.Task;
+
 /**
  * Base class for database migrations.
  */
@@ -50,7 +55,33 @@ public abstract class Migration {
         markCompleted(connection);
     }
 
-    private void markCompleted(SQLiteConnection connection) throws SQLiteException {
+    /**
+     * Determines whether the migration runs on its own instead of in the transaction of the other migrations, see {@link #executeStandalone(DatabaseAccess)}.
+     *
+     * @return true to be executed standalone
+     */
+    public boolean requiresStandaloneExecution() {
+        return false;
+    }
+
+    /**
+     * Executes the migration in as many transactions as it needs and marks it as completed.
+     * The migration manager calls this instead of {@link #execute(SQLiteConnection)} if {@link #requiresStandaloneExecution()} is true, after committing all previous migrations.
+     *
+     * @param databaseAccess The database access
+     * @return The task representing the asynchronous operation
+     */
+    public Task<Void> executeStandalone(DatabaseAccess databaseAccess) {
+        return databaseAccess.performThreadsafe(new DatabaseAccess.SQLiteConnectionContext<Void>() {
+            @Override
+            public Void run(@NonNull SQLiteConnection connection) throws Exception {
+                execute(connection);
+                return null;
+            }
+        }, true);
+    }
+
+    void markCompleted(SQLiteConnection connection) throws SQLiteException {
         SQLiteStatement statement = connection.createStatement("INSERT INTO migration (id, name, execution_date) VALUES (:id, :name, :execution_date)");
         statement.bindId(migrationId).to(":id");
         statement.bindValue(getName()).to(":name");
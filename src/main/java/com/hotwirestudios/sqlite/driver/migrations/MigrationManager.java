@@ -6,44 +6,205 @@ import android.support.annotation.Nullable;
 import com.hotwirestudios.sqlite.driver.DatabaseAccess;
 import com.hotwirestudios.sqlite.driver.SQLiteConnection;
 import com.hotwirestudios.sqlite.driver.SQLiteException;
+import com.hotwirestudios.sqlite.driver.SQLiteRow;
+import com.hotwirestudios.sqlite.driver.SQLiteStatement;
 
-import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import bolts.Continuation;
 import bolts.Task;
 
 /**
  * Simple migration manager allow to apply new migrations.
+ * Once all migrations of a list have been applied, a fingerprint of their ids is stored in PRAGMA user_version, so the database must not use user_version otherwise.
+ * The fingerprint only selects the fast path: it is confirmed against the migration table before any migration is skipped.
  */
 public class MigrationManager {
     /**
      * Performs all necessary migrations of the provided list.
      * The migrations will be executed in the provided order.
      * As they are identified by the MigrationId, make sure to have unique ids for all provided migrations.
+     * If the database is up to date, only user_version and the migration table are read, without a transaction.
      *
      * @param migrations     The migrations.
      * @param databaseAccess The database access
      * @return The task representing the asynchronous operation
      */
     public Task<Void> executeNecessaryMigrations(final List<Migration> migrations, final DatabaseAccess databaseAccess) {
-        return databaseAccess.performThreadsafe(new DatabaseAccess.SQLiteConnectionContext<Void>() {
+        final int fingerprint = getFingerprint(migrations);
+        return databaseAccess.performThreadsafe(new DatabaseAccess.SQLiteConnectionContext<Boolean>() {
             @Override
-            public Void run(@NonNull SQLiteConnection connection) throws Exception {
-                List<Long> performedMigrationIds;
-                try {
-                    performedMigrationIds = Migration.getPerformedMigrationIds(connection);
-                } catch (SQLiteException exception) {
-                    performedMigrationIds = new ArrayList<>();
+            public Boolean run(@NonNull SQLiteConnection connection) throws Exception {
+                // A colliding fingerprint or a user_version written by someone else must not skip pending migrations
+                return getUserVersion(connection) == fingerprint && (migrations.isEmpty() || hasMigrationTable(connection) && countPerformedMigrations(connection, migrations) == countIds(migrations));
+            }
+        }, false).onSuccessTask(new Continuation<Boolean, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Boolean> task) throws Exception {
+                if (task.getResult()) {
+                    return Task.forResult(null);
                 }
+                return executeMigrations(migrations, fingerprint, databaseAccess);
+            }
+        });
+    }
 
-                for (Migration migration : migrations) {
-                    if (performedMigrationIds.contains(migration.getMigrationId())) {
-                        continue;
+    private Task<Void> executeMigrations(final List<Migration> migrations, final int fingerprint, final DatabaseAccess databaseAccess) {
+        return databaseAccess.performThreadsafe(new DatabaseAccess.SQLiteConnectionContext<Set<Long>>() {
+            @Override
+            public Set<Long> run(@NonNull SQLiteConnection connection) throws Exception {
+                Set<Long> performedMigrationIds = new HashSet<>();
+                if (hasMigrationTable(connection)) {
+                    performedMigrationIds.addAll(Migration.getPerformedMigrationIds(connection));
+                }
+                return performedMigrationIds;
+            }
+        }, false).onSuccessTask(new Continuation<Set<Long>, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Set<Long>> task) throws Exception {
+                return executeMigrations(migrations, 0, task.getResult(), databaseAccess);
+            }
+        }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> task) throws Exception {
+                return databaseAccess.performThreadsafe(new DatabaseAccess.SQLiteConnectionContext<Void>() {
+                    @Override
+                    public Void run(@NonNull SQLiteConnection connection) throws Exception {
+                        connection.executeStatement("PRAGMA user_version = " + fingerprint);
+                        return null;
                     }
-                    migration.execute(connection);
+                }, false);
+            }
+        });
+    }
+
+    /**
+     * Executes the missing migrations from start on. Migrations are executed in a single transaction, up to the next one requiring standalone execution.
+     */
+    private Task<Void> executeMigrations(final List<Migration> migrations, int start, final Set<Long> performedMigrationIds, final DatabaseAccess databaseAccess) {
+        if (start >= migrations.size()) {
+            return Task.forResult(null);
+        }
+
+        Migration first = migrations.get(start);
+        boolean standalone = isStandalone(first, performedMigrationIds);
+        int end = start + 1;
+        while (!standalone && end < migrations.size() && !isStandalone(migrations.get(end), performedMigrationIds)) {
+            end++;
+        }
+
+        final int next = end;
+        final List<Migration> group = migrations.subList(start, end);
+        Task<Void> task;
+        if (standalone) {
+            task = first.executeStandalone(databaseAccess);
+        } else {
+            task = databaseAccess.performThreadsafe(new DatabaseAccess.SQLiteConnectionContext<Void>() {
+                @Override
+                public Void run(@NonNull SQLiteConnection connection) throws Exception {
+                    for (Migration migration : group) {
+                        if (performedMigrationIds.contains(migration.getMigrationId())) {
+                            continue;
+                        }
+                        migration.execute(connection);
+                    }
+                    return null;
                 }
-                return null;
+            }, true);
+        }
+        return task.onSuccessTask(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> task) throws Exception {
+                return executeMigrations(migrations, next, performedMigrationIds, databaseAccess);
             }
-        }, true);
+        });
+    }
+
+    private static boolean isStandalone(Migration migration, Set<Long> performedMigrationIds) {
+        return migration.requiresStandaloneExecution() && !performedMigrationIds.contains(migration.getMigrationId());
+    }
+
+    /**
+     * Calculates the fingerprint of a list of migrations, which is stored in user_version once all of them have been applied.
+     * It combines the ids like {@link List#hashCode()}, so migrations inserted anywhere in the list are detected. It is never 0, the user_version of a new database.
+     *
+     * @param migrations The migrations
+     * @return The fingerprint
+     */
+    static int getFingerprint(List<Migration> migrations) {
+        int fingerprint = 1;
+        for (Migration migration : migrations) {
+            long id = migration.getMigrationId();
+            fingerprint = 31 * fingerprint + (int) (id ^ (id >>> 32));
+        }
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private static int countIds(List<Migration> migrations) {
+        Set<Long> ids = new HashSet<>();
+        for (Migration migration : migrations) {
+            ids.add(migration.getMigrationId());
+        }
+        return ids.size();
+    }
+
+    /**
+     * Counts the migrations of the list, which are marked as performed in the migration table.
+     */
+    private static int countPerformedMigrations(SQLiteConnection connection, List<Migration> migrations) throws SQLiteException {
+        // The ids are numbers, so they can be listed in the statement without binding each of them
+        StringBuilder sql = new StringBuilder("SELECT COUNT(DISTINCT id) AS count FROM migration WHERE id IN (");
+        for (int i = 0; i < migrations.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(migrations.get(i).getMigrationId());
+        }
+        sql.append(')');
+
+        SQLiteStatement statement = connection.createStatement(sql.toString());
+        try {
+            Integer count = statement.load(new SQLiteStatement.RowValueCallback<Integer>() {
+                @Override
+                public Integer readRow(SQLiteRow row) throws SQLiteException {
+                    return row.getInteger("count");
+                }
+            });
+            return count == null ? 0 : count;
+        } finally {
+            statement.finish();
+        }
+    }
+
+    private static int getUserVersion(SQLiteConnection connection) throws SQLiteException {
+        SQLiteStatement statement = connection.createStatement("PRAGMA user_version");
+        try {
+            Integer version = statement.load(new SQLiteStatement.RowValueCallback<Integer>() {
+                @Override
+                public Integer readRow(SQLiteRow row) throws SQLiteException {
+                    return row.getInteger("user_version");
+                }
+            });
+            return version == null ? 0 : version;
+        } finally {
+            statement.finish();
+        }
+    }
+
+    private static boolean hasMigrationTable(SQLiteConnection connection) throws SQLiteException {
+        SQLiteStatement statement = connection.createStatement("SELECT name FROM sqlite_master WHERE type = 'table' AND name = 'migration'");
+        try {
+            String name = statement.load(new SQLiteStatement.RowValueCallback<String>() {
+                @Override
+                public String readRow(SQLiteRow row) throws SQLiteException {
+                    return row.getText("name");
+                }
+            });
+            return name != null;
+        } finally {
+            statement.finish();
+        }
     }
 }
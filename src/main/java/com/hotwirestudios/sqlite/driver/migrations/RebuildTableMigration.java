@@ -0,0 +1,207 @@
+package com.hotwirestudios.sqlite.driver.migrations;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.hotwirestudios.sqlite.driver.DatabaseAccess;
+import com.hotwirestudios.sqlite.driver.SQLiteConnection;
+import com.hotwirestudios.sqlite.driver.SQLiteException;
+import com.hotwirestudios.sqlite.driver.SQLiteNative;
+import com.hotwirestudios.sqlite.driver.SQLiteRow;
+import com.hotwirestudios.sqlite.driver.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import bolts.Task;
+
+/**
+ * Changes the schema of an existing table by rebuilding it, e.g. to drop columns, change types or add constraints.
+ * The new table is created without indexes, filled with a single INSERT ... SELECT and renamed after the old table has been dropped.
+ * Indexes and triggers are created afterwards, so they are built once instead of being maintained for every copied row.
+ * As dropping the table must neither delete nor cascade to referencing rows, the migration runs standalone with foreign keys disabled and fails if foreign keys are violated afterwards.
+ */
+public class RebuildTableMigration extends Migration {
+    private final String name;
+    private final String table;
+    private final String definition;
+    private final Column[] columns;
+    private final @Nullable String[] indexes;
+
+    /**
+     * Instantiates a new RebuildTableMigration, which recreates the existing indexes and triggers of the table.
+     *
+     * @param migrationId The unique migration id
+     * @param name        The migration name
+     * @param table       The table
+     * @param definition  The column definitions and table constraints of the new table, i.e. everything between the parentheses of CREATE TABLE
+     * @param columns     The columns of the new table filled from the old table
+     */
+    public RebuildTableMigration(long migrationId, String name, String table, String definition, Column[] columns) {
+        this(migrationId, name, table, definition, columns, null);
+    }
+
+    /**
+     * Instantiates a new RebuildTableMigration.
+     *
+     * @param migrationId The unique migration id
+     * @param name        The migration name
+     * @param table       The table
+     * @param definition  The column definitions and table constraints of the new table, i.e. everything between the parentheses of CREATE TABLE
+     * @param columns     The columns of the new table filled from the old table
+     * @param indexes     The CREATE INDEX statements replacing the existing indexes of the table (null to recreate the existing ones)
+     */
+    public RebuildTableMigration(long migrationId, String name, String table, String definition, Column[] columns, @Nullable String[] indexes) {
+        super(migrationId);
+        this.name = name;
+        this.table = table;
+        this.definition = definition;
+        this.columns = columns;
+        this.indexes = indexes;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean requiresStandaloneExecution() {
+        return true;
+    }
+
+    @Override
+    public Task<Void> executeStandalone(DatabaseAccess databaseAccess) {
+        return databaseAccess.performThreadsafe(new DatabaseAccess.SQLiteConnectionContext<Void>() {
+            @Override
+            public Void run(@NonNull SQLiteConnection connection) throws Exception {
+                // Foreign keys cannot be disabled within a transaction
+                connection.executeStatement("PRAGMA foreign_keys = 0");
+                try {
+                    connection.executeStatement("BEGIN TRANSACTION");
+                    try {
+                        execute(connection);
+                        connection.executeStatement("COMMIT TRANSACTION");
+                    } catch (Exception exception) {
+                        connection.executeStatement("ROLLBACK TRANSACTION");
+                        throw exception;
+                    }
+                } finally {
+                    connection.executeStatement("PRAGMA foreign_keys = 1");
+                }
+                return null;
+            }
+        }, false);
+    }
+
+    /**
+     * Rebuilds the table in the current transaction. Foreign keys must be disabled.
+     */
+    @Override
+    protected void executeImpl(SQLiteConnection connection) throws Exception {
+        if (loadInteger(connection, "PRAGMA foreign_keys", "foreign_keys") != 0) {
+            throw new SQLiteException(SQLiteNative.RESULT_MISUSE, "Foreign keys must be disabled to rebuild table " + table);
+        }
+
+        List<String> schema = loadSchema(connection);
+        String newTable = "new_" + table;
+        connection.executeStatement("CREATE TABLE \"" + newTable + "\" (" + definition + ")");
+
+        StringBuilder names = new StringBuilder();
+        StringBuilder expressions = new StringBuilder();
+        for (Column column : columns) {
+            if (names.length() > 0) {
+                names.append(", ");
+                expressions.append(", ");
+            }
+            names.append('"').append(column.name).append('"');
+            expressions.append(column.expression);
+        }
+        connection.executeStatement("INSERT INTO \"" + newTable + "\" (" + names + ") SELECT " + expressions + " FROM \"" + table + "\"");
+
+        connection.executeStatement("DROP TABLE \"" + table + "\"");
+        // Otherwise SQLite 3.26+ fails to rename while views or triggers refer to the dropped table
+        connection.executeStatement("PRAGMA legacy_alter_table = 1");
+        try {
+            connection.executeStatement("ALTER TABLE \"" + newTable + "\" RENAME TO \"" + table + "\"");
+        } finally {
+            connection.executeStatement("PRAGMA legacy_alter_table = 0");
+        }
+
+        for (String sql : schema) {
+            connection.executeStatement(sql);
+        }
+
+        if (loadInteger(connection, "SELECT COUNT(*) AS violations FROM pragma_foreign_key_check", "violations") != 0) {
+            throw new SQLiteException(SQLiteNative.RESULT_CONSTRAINT, "Foreign keys are violated after rebuilding table " + table);
+        }
+    }
+
+    /**
+     * Loads the statements creating the indexes and triggers of the table, indexes first.
+     */
+    private List<String> loadSchema(SQLiteConnection connection) throws SQLiteException {
+        final List<String> schema = new ArrayList<>();
+        if (indexes != null) {
+            for (String index : indexes) {
+                schema.add(index);
+            }
+        }
+
+        // Indexes created for constraints have no SQL and are created along with the new table
+        SQLiteStatement statement = connection.createStatement("SELECT sql FROM sqlite_master WHERE tbl_name = :table AND (type = 'trigger' OR (type = 'index' AND :indexes)) AND sql IS NOT NULL ORDER BY type = 'trigger'");
+        try {
+            statement.bindValue(table).to(":table");
+            statement.bindValue(indexes == null).to(":indexes");
+            schema.addAll(statement.readList(new SQLiteStatement.RowValueCallback<String>() {
+                @Override
+                public String readRow(SQLiteRow row) throws SQLiteException {
+                    return row.getText("sql");
+                }
+            }));
+        } finally {
+            statement.finish();
+        }
+        return schema;
+    }
+
+    private static int loadInteger(SQLiteConnection connection, String sql, final String column) throws SQLiteException {
+        SQLiteStatement statement = connection.createStatement(sql);
+        try {
+            Integer value = statement.load(new SQLiteStatement.RowValueCallback<Integer>() {
+                @Override
+                public Integer readRow(SQLiteRow row) throws SQLiteException {
+                    return row.getInteger(column);
+                }
+            });
+            return value == null ? 0 : value;
+        } finally {
+            statement.finish();
+        }
+    }
+
+    public static class Column {
+        private final String name;
+        private final String expression;
+
+        /**
+         * Copies the column with the same name from the old table.
+         *
+         * @param name The column name
+         */
+        public Column(String name) {
+            this(name, "\"" + name + "\"");
+        }
+
+        /**
+         * Fills the column with an expression evaluated for each row of the old table, e.g. CAST(price AS INTEGER) or COALESCE(title, '').
+         *
+         * @param name       The column name
+         * @param expression The SQL expression
+         */
+        public Column(String name, String expression) {
+            this.name = name;
+            this.expression = expression;
+        }
+    }
+}